@@ -2,8 +2,10 @@ package ru.iitdgroup.lingutil.collect;
 
 import java.util.AbstractMap;
 import java.util.AbstractSet;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.Set;
@@ -179,6 +181,7 @@ public class SimpleTrieMap<V> extends AbstractMap<String, V>
         node.next = node.next == null 
                   ? new SingleCharMap<>(s.charAt(from), next)
                   : node.next.put(s.charAt(from), next);
+        node.keys = null;
     }
     
     
@@ -255,6 +258,7 @@ public class SimpleTrieMap<V> extends AbstractMap<String, V>
     @Override
     public void clear() {
         root.next = null;
+        root.keys = null;
         root.value = null;
         size = 0;
     }
@@ -263,8 +267,7 @@ public class SimpleTrieMap<V> extends AbstractMap<String, V>
     
     @Override
     public TrieCursor<V> getCursor() {
-        // TODO: implement
-        throw new UnsupportedOperationException();
+        return new Cursor();
     }
     
     
@@ -293,6 +296,7 @@ public class SimpleTrieMap<V> extends AbstractMap<String, V>
         V value;                // value
         final char[] edge;      // edge, if it is more than 1 char
         CharMap<Node<V>> next;  // next node holder
+        char[] keys;            // sorted keys of `next`, built lazily
         
         Node(V value, CharSequence s, int from) {
             this.value = value;
@@ -318,6 +322,20 @@ public class SimpleTrieMap<V> extends AbstractMap<String, V>
             return left;
         }
         
+        char[] keys() {
+            if (keys == null) {
+                int k = 0;
+                char[] ks = new char[next == null ? 0 : next.size()];
+                if (next != null) {
+                    for (CharMap.CharEntry<Node<V>> e : next)
+                        ks[k++] = e.getChar();
+                    Arrays.sort(ks);
+                }
+                keys = ks;
+            }
+            return keys;
+        }
+        
         @Override
         public String toString() {
             return String.format("[%s: %s]", 
@@ -328,6 +346,178 @@ public class SimpleTrieMap<V> extends AbstractMap<String, V>
     
     
     
+    /**
+     * Cursor holds current prefix as a stack of nodes
+     * along with positions in their edges
+     */
+    final class Cursor implements TrieCursor<V> {
+        
+        List<Node<V>> nodes   = new ArrayList<>(16);  // node holding each prefix char
+        int[]         offsets = new int[16];          // position of each char in node edge
+        char[]        chars   = new char[16];         // current prefix
+        int           pos     = -1;
+        
+        
+        @Override
+        public boolean hasNext() {
+            if (!atNodeEnd())
+                return true;
+            return node().keys().length > 0;
+        }
+        
+        
+        @Override
+        public boolean hasNext(char c) {
+            if (!atNodeEnd())
+                return nodes.get(pos).edge[offsets[pos] + 1] == c;
+            CharMap<Node<V>> h = node().next;
+            return h != null && h.containsKey(c);
+        }
+        
+        
+        @Override
+        public char next() throws NoSuchElementException {
+            if (!atNodeEnd())
+                return push(nodes.get(pos), offsets[pos] + 1, nodes.get(pos).edge[offsets[pos] + 1]);
+            char[] ks = node().keys();
+            if (ks.length == 0)
+                throw new NoSuchElementException();
+            return push(node().next.get(ks[0]), 0, ks[0]);
+        }
+        
+        
+        @Override
+        public char next(char c) throws NoSuchElementException {
+            if (!hasNext(c))
+                throw new NoSuchElementException();
+            if (!atNodeEnd())
+                return push(nodes.get(pos), offsets[pos] + 1, c);
+            return push(node().next.get(c), 0, c);
+        }
+        
+        
+        @Override
+        public boolean hasMore() {
+            return pos >= 0 && offsets[pos] == 0 
+                   && nextKey(parent().keys(), chars[pos]) >= 0;
+        }
+        
+        
+        @Override
+        public boolean hasMore(char c) {
+            return pos >= 0 && offsets[pos] == 0 && chars[pos] != c
+                   && parent().next.containsKey(c);
+        }
+        
+        
+        @Override
+        public char more() throws NoSuchElementException {
+            int k = pos < 0 || offsets[pos] != 0 ? -1 : nextKey(parent().keys(), chars[pos]);
+            if (k < 0)
+                throw new NoSuchElementException();
+            return replace(parent().keys()[k]);
+        }
+        
+        
+        @Override
+        public char more(char c) throws NoSuchElementException {
+            if (!hasMore(c))
+                throw new NoSuchElementException();
+            return replace(c);
+        }
+        
+        
+        @Override
+        public char back() throws NoSuchElementException {
+            if (pos < 0)
+                throw new NoSuchElementException();
+            return chars[pos--];
+        }
+        
+        
+        @Override
+        public boolean hasValue() {
+            return atNodeEnd() && node().value != null;
+        }
+        
+        
+        @Override
+        public V getValue() {
+            return atNodeEnd() ? node().value : null;
+        }
+        
+        
+        @Override
+        public int currentPosition() {
+            return pos;
+        }
+        
+        
+        @Override
+        public char currentChar() {
+            if (pos < 0)
+                throw new NoSuchElementException();
+            return chars[pos];
+        }
+        
+        
+        @Override
+        public String currentPrefix() {
+            return new String(chars, 0, pos + 1);
+        }
+        
+        
+        // node holding the ending char of current prefix
+        Node<V> node() {
+            return pos < 0 ? root : nodes.get(pos);
+        }
+        
+        
+        // node which `next` holds current node
+        Node<V> parent() {
+            return pos == 0 ? root : nodes.get(pos - 1);
+        }
+        
+        
+        // is the ending char of current prefix the last in its node?
+        boolean atNodeEnd() {
+            return pos < 0 || nodes.get(pos).edge == null 
+                   || offsets[pos] == nodes.get(pos).edge.length - 1;
+        }
+        
+        
+        char push(Node<V> n, int offset, char c) {
+            if (++pos == chars.length) {
+                offsets = Arrays.copyOf(offsets, pos * 2);
+                chars   = Arrays.copyOf(chars, pos * 2);
+            }
+            if (pos == nodes.size())
+                nodes.add(n);
+            else
+                nodes.set(pos, n);
+            offsets[pos] = offset;
+            return chars[pos] = c;
+        }
+        
+        
+        char replace(char c) {
+            nodes.set(pos, parent().next.get(c));
+            return chars[pos] = c;
+        }
+        
+        
+        // index of the least key greater than `c`, or -1
+        int nextKey(char[] keys, char c) {
+            for (int k = 0; k < keys.length; k++) {
+                if (keys[k] > c)
+                    return k;
+            }
+            return -1;
+        }
+    }
+    
+    
+    
     final class Itr implements Iterator<Entry<String, V>> {
         
         Entry<String, V> next = null;
@@ -370,7 +560,7 @@ public class SimpleTrieMap<V> extends AbstractMap<String, V>
                 // alternative char for its ending
                 while (!cur.hasMore()) {            
                     // if finished, return null
-                    if (cur.currentPosition() == 0)
+                    if (cur.currentPosition() <= 0)
                         return null;                
                     cur.back();
                 }
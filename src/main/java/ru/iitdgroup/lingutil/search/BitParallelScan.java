@@ -0,0 +1,234 @@
+package ru.iitdgroup.lingutil.search;
+
+import java.util.Arrays;
+
+
+/**
+ * Bit-parallel scan for {@link FoneticSearch} in the spirit of
+ * Wu&ndash;Manber: pattern positions are bits of a `long`, and for
+ * every integer cost level `l` a vector of pattern positions reachable
+ * at current text char with cost at most `l` is kept, so each text char
+ * takes a constant number of word operations per level.
+ * <p>
+ * Transitions are the same as in scalar {@link FoneticSearch},
+ * including the rule that only one-char edits are allowed between
+ * matching pieces, but costs are rounded down to units of the least
+ * non-zero cost. So the scan is a sound filter: every end of a match
+ * within max cost is reported, while exact costs and starts are left
+ * to scalar search near reported ends.
+ * <p>
+ * Patterns of 2 to 64 chars are supported.
+ *
+ * @author Salauyou
+ */
+final class BitParallelScan {
+
+    static final int MAX_LENGTH = 64;
+    static final int MAX_LEVELS = 32;
+
+    // pattern positions by text char: equal to it,
+    // substitutable by it, having digraph substitutable by it
+    final long[] eqAscii = new long[128];
+    final long[] eqBits  = new long[PhoneticTable.SIZE];
+    final long[] subBits = new long[PhoneticTable.SIZE];
+    final long[] laBits  = new long[PhoneticTable.SIZE];
+    final long[] subAscii = new long[128];
+    final long[] laAscii  = new long[128];
+    boolean nonAscii;
+
+    // level vectors at text chars j - 1 and j - 2, already shifted
+    // for transitions from previous pattern char (`a`) and from 
+    // the one before it (`b`). Level `l` is held at `PAD + l`, 
+    // lower indices are zeros, standing for negative levels
+    static final int PAD = 2 * MAX_LEVELS + 2;
+    long[] a1 = new long[PAD + MAX_LEVELS];
+    long[] b1 = new long[PAD + MAX_LEVELS];
+    long[] a2 = new long[PAD + MAX_LEVELS];
+    long[] b2 = new long[PAD + MAX_LEVELS];
+    long[] a0 = new long[PAD + MAX_LEVELS];
+    long[] b0 = new long[PAD + MAX_LEVELS];
+
+    int[] ends = new int[16];
+
+
+    /**
+     * Scans `text` for ends of matches of `pattern`, putting them
+     * into {@link #ends} in ascending order. Returns the number of ends,
+     * or -1 if given costs cannot be handled, so scalar search
+     * should be used instead
+     */
+    int scan(FoneticText text, FoneticPattern pattern, double substCost, double digraphCost,
+             double gapCost, double replaceCost, double maxCost) {
+        int m = pattern.length();
+        if (m < 2 || m > MAX_LENGTH)
+            return -1;
+        int[] units = units(substCost, digraphCost, gapCost, replaceCost, maxCost);
+        if (units == null)
+            return -1;
+        int lv = units[0];
+        int S  = units[1];
+        int D  = units[2];
+        int G  = units[3];
+        int R  = units[4];
+        prepare(pattern);
+
+        long   full    = m == 64 ? -1L : (1L << m) - 1;
+        long   last    = 1L << (m - 1);
+        long   prelast = 1L << (m - 2);
+        int    lg      = lv - G;
+        int    len     = text.length();
+        char[] tc      = text.chars;
+        long[] td      = text.digraphs;
+        long[] a0 = this.a0, a1 = this.a1, a2 = this.a2;
+        long[] b0 = this.b0, b1 = this.b1, b2 = this.b2;
+        for (int l = PAD; l <= PAD + lv; l++) {
+            a1[l] = a2[l] = 1L;    // the first row is everywhere,
+            b1[l] = b2[l] = 2L;    // rows of pattern chars are nowhere
+        }
+        int n     = 0;
+        int quiet = 2;    // number of previous chars where nothing was reached, up to 2
+
+        for (int j = 0; j < len; j++) {
+            char b = tc[j];
+            long eq, sb, la;
+            if (b < 128) {
+                eq = eqAscii[b];
+                sb = subAscii[b];
+                la = laAscii[b];
+            } else {
+                eq = nonAscii ? eqSlow(pattern, b) : 0;
+                sb = la = 0;
+            }
+            long lb = 0, both = 0;
+            for (long r = td[j]; r != 0; r &= r - 1) {
+                int c = Long.numberOfTrailingZeros(r);
+                lb   |= eqBits[c];
+                both |= laBits[c];
+            }
+            
+            // after two quiet chars only the first two pattern
+            // chars can be reached, directly from the first row
+            long any = eq | sb | la | lb | both;
+            if (quiet == 2 && (any & 3L) == 0)
+                continue;
+            boolean hit = false;
+            if (any == 0) {
+                for (int l = PAD; l <= PAD + lv; l++) {
+                    a0[l] = 1L;
+                    b0[l] = 2L;
+                }
+                quiet = Math.min(quiet + 1, 2);
+            } else {
+                long reached = 0;
+                for (int l = PAD; l <= PAD + lv; l++) {
+                    long x = eq   & (a1[l] | a2[l - G] | b1[l - G] | b2[l - R])
+                           | sb   & (a1[l - S] | a2[l - S - G] | b1[l - S - G] | b2[l - S - R])
+                           | la   & (b1[l - D] | b2[l - D - G])
+                           | lb   & (a2[l - D] | b2[l - D - G])
+                           | both & b2[l - D];
+                    x &= full;
+                    a0[l] = x << 1 | 1L;
+                    b0[l] = x << 2 | 2L;
+                    reached |= x;
+                    
+                    // match of the whole pattern, or of all but
+                    // the last char, which is then a gap
+                    if (l == PAD + lv && (x & last) != 0 || l == PAD + lg && (x & prelast) != 0)
+                        hit = true;
+                }
+                quiet = reached != 0 ? 0 : Math.min(quiet + 1, 2);
+            }
+            if (hit) {
+                if (n == ends.length)
+                    ends = Arrays.copyOf(ends, n * 2);
+                ends[n++] = j;
+            }
+            long[] tmp = a2;
+            a2 = a1;
+            a1 = a0;
+            a0 = tmp;
+            tmp = b2;
+            b2 = b1;
+            b1 = b0;
+            b0 = tmp;
+        }
+        this.a0 = a0;
+        this.a1 = a1;
+        this.a2 = a2;
+        this.b0 = b0;
+        this.b1 = b1;
+        this.b2 = b2;
+        return n;
+    }
+
+
+    /**
+     * Rounds costs down to units of the least non-zero cost. Returns
+     * max level followed by substitution, digraph, gap and replace costs
+     * in units, or null if costs cannot be handled
+     */
+    static int[] units(double substCost, double digraphCost, double gapCost, 
+                       double replaceCost, double maxCost) {
+        if (substCost < 0 || digraphCost < 0 || gapCost < 0 || replaceCost < 0 || maxCost < 0)
+            return null;
+        double u = Double.MAX_VALUE;
+        for (double c : new double[] { substCost, digraphCost, gapCost, replaceCost }) {
+            if (c > 0 && c < u)
+                u = c;
+        }
+        if (u == Double.MAX_VALUE)
+            u = 1.0;
+        double nl = Math.floor(maxCost / u + 1e-9);
+        if (nl >= MAX_LEVELS)
+            return null;
+        int lv = (int) nl;
+        
+        // costs above max are the same as infinite
+        return new int[] { lv, 
+                           (int) Math.min(Math.floor(substCost / u), lv + 1),
+                           (int) Math.min(Math.floor(digraphCost / u), lv + 1),
+                           (int) Math.min(Math.floor(gapCost / u), lv + 1),
+                           (int) Math.min(Math.floor(replaceCost / u), lv + 1) };
+    }
+
+
+    private void prepare(FoneticPattern p) {
+        Arrays.fill(eqAscii, 0);
+        Arrays.fill(eqBits, 0);
+        Arrays.fill(subBits, 0);
+        Arrays.fill(laBits, 0);
+        nonAscii = false;
+        for (int i = 0; i < p.length(); i++) {
+            char a   = p.chars[i];
+            long bit = 1L << i;
+            if (a < 128)
+                eqAscii[a] |= bit;
+            else
+                nonAscii = true;
+            if (p.bits[i] >= 0)
+                eqBits[p.bits[i]] |= bit;
+            for (long r = p.subs[i]; r != 0; r &= r - 1) {
+                int c = Long.numberOfTrailingZeros(r);
+                if (c != p.bits[i])
+                    subBits[c] |= bit;
+            }
+            for (long r = p.digraphs[i]; r != 0; r &= r - 1)
+                laBits[Long.numberOfTrailingZeros(r)] |= bit;
+        }
+        for (char c : PhoneticTable.CHARS) {
+            subAscii[c] = subBits[PhoneticTable.bit(c)];
+            laAscii[c]  = laBits[PhoneticTable.bit(c)];
+        }
+    }
+
+
+    private static long eqSlow(FoneticPattern p, char b) {
+        long eq = 0;
+        for (int i = 0; i < p.length(); i++) {
+            if (p.chars[i] == b)
+                eq |= 1L << i;
+        }
+        return eq;
+    }
+
+}
@@ -0,0 +1,221 @@
+package ru.iitdgroup.lingutil.search;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+import ru.iitdgroup.lingutil.collect.SimpleTrieMap;
+import ru.iitdgroup.lingutil.collect.TrieMap;
+import ru.iitdgroup.lingutil.match.ScoredMatch;
+import ru.iitdgroup.lingutil.text.Folding;
+
+
+/**
+ * Index of dictionary entries by deletion neighbourhoods of their
+ * phonetic keys (see {@link PhoneticKeyIndex#key(CharSequence)}): every
+ * key with up to `maxEdits` chars deleted is stored in a {@link TrieMap}
+ * and refers to the entry. A word is looked up by deletion variants of
+ * its own key, so an entry, which differs from the word by up to
+ * `maxEdits` gaps or replacements besides phonetic substitutions, is
+ * found by a handful of probes rather than by scanning the dictionary.
+ * Candidates are then verified by {@link FoneticSearch#getScore(
+ * CharSequence, CharSequence, double)}.
+ * <p>
+ * As phonetic keys, neighbourhoods are a filter: an entry within max
+ * cost may be missed if its key and the word's key are segmented into
+ * digraphs differently, or differ by more than `maxEdits` chars.
+ * A word of `n` chars has about n<sup>`maxEdits`</sup> / `maxEdits`!
+ * variants, so 1 or 2 edits are practical.
+ * <p>
+ * Not thread-safe while entries are added, may be shared by threads after
+ * that if `search` is immutable.
+ *
+ * @author Salauyou
+ */
+public class DeletionIndex<V> {
+
+    final FoneticSearch          search;
+    final int                    maxEdits;
+    final TrieMap<Postings>      variants = new SimpleTrieMap<>();
+    final List<Entry<String, V>> entries  = new ArrayList<>();
+    final Map<String, Integer>   ids      = new HashMap<>();
+
+
+    /**
+     * Creates empty index, which finds entries up to `maxEdits` gaps
+     * or replacements apart and verifies them by `search`
+     */
+    public DeletionIndex(FoneticSearch search, int maxEdits) {
+        if (maxEdits < 0)
+            throw new IllegalArgumentException("Max edits must not be negative");
+        this.search   = search;
+        this.maxEdits = maxEdits;
+    }
+
+
+    /**
+     * Creates index of all entries of `dictionary`, trimmed 
+     * (see {@link #trim()})
+     */
+    public DeletionIndex(FoneticSearch search, int maxEdits, Map<String, ? extends V> dictionary) {
+        this(search, maxEdits);
+        dictionary.forEach(this::put);
+        trim();
+    }
+
+
+    /**
+     * Adds an entry (folded if `search` folds, see {@link
+     * FoneticSearch#setFolding(boolean)}), replacing value
+     * of the same entry if it is already added
+     */
+    public DeletionIndex<V> put(String entry, V value) {
+        String e = search.config().folding ? Folding.fold(entry) : entry;
+        Integer id = ids.get(e);
+        if (id != null) {
+            entries.set(id, new SimpleImmutableEntry<>(e, value));
+            return this;
+        }
+        id = entries.size();
+        entries.add(new SimpleImmutableEntry<>(e, value));
+        ids.put(e, id);
+        for (String v : deletions(PhoneticKeyIndex.key(e))) {
+            Postings ps = variants.get(v);
+            if (ps == null)
+                variants.put(v, ps = new Postings());
+            ps.add(id);
+        }
+        return this;
+    }
+    
+    
+    /**
+     * Shrinks lists of entry ids to their sizes, so an index, 
+     * which is not added to anymore, takes no spare memory
+     */
+    public DeletionIndex<V> trim() {
+        for (Postings ps : variants.values())
+            ps.trim();
+        return this;
+    }
+
+
+    /**
+     * Number of entries
+     */
+    public int size() {
+        return entries.size();
+    }
+
+
+    /**
+     * Max number of chars deleted from keys
+     */
+    public int getMaxEdits() {
+        return maxEdits;
+    }
+
+
+    /**
+     * Entries, which keys have a deletion variant in common with
+     * key of `word`, unverified, in order they were added
+     */
+    public List<Entry<String, V>> candidates(CharSequence word) {
+        CharSequence w = search.config().folding ? Folding.fold(word) : word;
+        int[] found = new int[0];
+        int   n     = 0;
+        for (String v : deletions(PhoneticKeyIndex.key(w))) {
+            Postings ps = variants.get(v);
+            if (ps == null)
+                continue;
+            if (n + ps.size > found.length)
+                found = Arrays.copyOf(found, Math.max(2 * found.length, n + ps.size));
+            System.arraycopy(ps.ids, 0, found, n, ps.size);
+            n += ps.size;
+        }
+        Arrays.sort(found, 0, n);
+        List<Entry<String, V>> res = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            if (i == 0 || found[i] != found[i - 1])
+                res.add(entries.get(found[i]));
+        }
+        return res;
+    }
+
+
+    /**
+     * Sends to `matchConsumer` values of candidate entries (see {@link
+     * #candidates(CharSequence)}) matching `word` within `maxCost`, together
+     * with a match spanning the whole word and scored by its cost.
+     * Returns the number of entries sent
+     */
+    public int lookup(CharSequence word, double maxCost,
+                      BiConsumer<ScoredMatch, ? super V> matchConsumer) {
+        int found = 0;
+        for (Entry<String, V> e : candidates(word)) {
+            double cost = search.getScore(word, e.getKey(), maxCost);
+            if (cost <= maxCost) {
+                matchConsumer.accept(new ScoredMatch(0, word.length(), cost), e.getValue());
+                found++;
+            }
+        }
+        return found;
+    }
+
+
+
+    /**
+     * `key` and all distinct strings made of it by deleting
+     * up to `maxEdits` chars
+     */
+    Set<String> deletions(String key) {
+        Set<String> res = new HashSet<>();
+        res.add(key);
+        List<String> level = new ArrayList<>(res);
+        for (int d = 0; d < maxEdits; d++) {
+            List<String> next = new ArrayList<>();
+            for (String s : level) {
+                for (int i = 0; i < s.length(); i++) {
+                    String v = s.substring(0, i) + s.substring(i + 1);
+                    if (res.add(v))
+                        next.add(v);
+                }
+            }
+            level = next;
+        }
+        return res;
+    }
+    
+    
+    
+    /**
+     * Ids of entries having a deletion variant, ascending 
+     * as they are added, in an array growing twice when full
+     */
+    static final class Postings {
+        
+        int[] ids = new int[1];
+        int   size;
+        
+        
+        void add(int id) {
+            if (size == ids.length)
+                ids = Arrays.copyOf(ids, 2 * size);
+            ids[size++] = id;
+        }
+        
+        
+        void trim() {
+            if (size < ids.length)
+                ids = Arrays.copyOf(ids, size);
+        }
+    }
+
+}
@@ -0,0 +1,117 @@
+package ru.iitdgroup.lingutil.search;
+
+import java.util.Arrays;
+
+import ru.iitdgroup.lingutil.text.Folding;
+
+
+/**
+ * Pattern compiled for {@link FoneticSearch}: each pattern char is
+ * resolved once into bit masks of its phonetic substitutes and of
+ * chars, which the digraph ending at it may be substituted by, so
+ * search itself performs only bit tests instead of map lookups.
+ * Masks are taken from {@link PhoneticTable}.
+ * <p>
+ * Instances obtained by {@link FoneticSearch#compile(CharSequence)}
+ * are immutable, so they may be shared between threads and reused
+ * for any number of texts.
+ *
+ * @author Salauyou
+ * @Immutable
+ */
+public final class FoneticPattern {
+
+    char[]      chars;
+    int         length;
+    long[]      subs;        // chars that can substitute pattern char
+    long[]      digraphs;    // chars that can substitute digraph ending at pattern char
+    byte[]      bits;        // bits of pattern chars, -1 if out of alphabet
+
+
+    FoneticPattern(int capacity) {
+        chars       = new char[capacity];
+        subs        = new long[capacity];
+        digraphs    = new long[capacity];
+        bits        = new byte[capacity];
+    }
+
+
+    FoneticPattern(CharSequence pattern) {
+        this(pattern, false);
+    }
+
+
+    FoneticPattern(CharSequence pattern, boolean fold) {
+        this(pattern.length());
+        set(pattern, fold);
+    }
+
+
+    /**
+     * Pattern length
+     */
+    public int length() {
+        return length;
+    }
+
+
+    /**
+     * Pattern char at given position
+     */
+    public char charAt(int i) {
+        if (i >= length)
+            throw new IndexOutOfBoundsException();
+        return chars[i];
+    }
+
+
+    @Override
+    public String toString() {
+        return new String(chars, 0, length);
+    }
+
+
+
+    // ------ filling, used by workspace for scratch patterns ------ //
+
+    FoneticPattern set(CharSequence pattern) {
+        return set(pattern, false);
+    }
+
+
+    /**
+     * Fills by `pattern`, folding its chars if `fold` is set
+     */
+    FoneticPattern set(CharSequence pattern, boolean fold) {
+        length = 0;
+        char prev = 0;
+        for (int i = 0; i < pattern.length(); i++) {
+            char a = fold ? Folding.fold(pattern.charAt(i)) : pattern.charAt(i);
+            set(i, prev, a);
+            prev = a;
+        }
+        return this;
+    }
+
+
+    /**
+     * Sets char at position `i`, preceded by `prev`, and truncates
+     * pattern to `i + 1` chars
+     */
+    void set(int i, char prev, char a) {
+        if (i >= chars.length) {
+            int c = Math.max(i + 1, chars.length * 2);
+            chars       = Arrays.copyOf(chars, c);
+            subs        = Arrays.copyOf(subs, c);
+            digraphs    = Arrays.copyOf(digraphs, c);
+            bits        = Arrays.copyOf(bits, c);
+        }
+        PhoneticTable tb = FoneticSearch.TABLE;
+        chars[i]       = a;
+        subs[i]        = tb.substitutes(a);
+        bits[i]        = (byte) PhoneticTable.bit(a);
+        digraphs[i]    = i == 0 ? 0 : tb.digraphSubstitutes(prev, a);
+        length         = i + 1;
+    }
+
+}
@@ -0,0 +1,197 @@
+package ru.iitdgroup.lingutil.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+
+/**
+ * Set of patterns compiled for single-pass search by
+ * {@link FoneticSearch#search(CharSequence, FoneticPatternSet, double,
+ * java.util.function.BiConsumer)}: a text is scanned once, advancing
+ * bit-parallel automata of all patterns which may match at current
+ * position together.
+ * <p>
+ * Patterns of 2 to 64 chars are packed into lanes: a lane is a `long`
+ * holding positions of several patterns one after another, so a single
+ * automaton step advances all of them. Besides compiled patterns, holds
+ * char masks of lanes laid out by char, so masks of all lanes for a text
+ * char are read in a row, and sets of lanes which a text char can start
+ * a match in.
+ * <p>
+ * Instances are immutable and may be shared between threads.
+ *
+ * @author Salauyou
+ * @Immutable
+ */
+public final class FoneticPatternSet {
+
+    final FoneticPattern[] patterns;
+
+    // patterns handled by scan, i. e. of 2..64 chars, in index order.
+    // Scan reports ends by position in this array
+    final int[] scanned;
+
+    // lanes: first positions, all positions and last positions
+    // of patterns packed in a lane. Patterns of lane `f` are
+    // `scanned[segments[first[f]..first[f + 1]]]` by ascending bits
+    final int    lanes;
+    final long[] starts;
+    final long[] full;
+    final long[] lasts;
+    final int[]  first;
+    final int[]  segments;
+
+    // char slots: alphabet chars take slots by their bits,
+    // other chars occurring in patterns follow them
+    final short[] slots;
+    final int     nslots;
+
+    // masks for alphabet char of bit `c` and lane `f` are kept together
+    // at `(c * lanes + f) * 3`: positions equal to char, substitutable
+    // by it, having digraph substitutable by it. For other chars,
+    // positions equal to char are kept by slot, then by lane
+    final long[] masks;
+    final long[] eqOther;
+
+    // bit sets of lanes, `words` longs each, which can be started
+    // by a char at a slot, or by text digraph substitutable by char
+    final int    words;
+    final long[] triggers;
+    final long[] digraphTriggers;
+
+
+    FoneticPatternSet(Collection<? extends CharSequence> patterns) {
+        int np = patterns.size();
+        this.patterns = new FoneticPattern[np];
+        List<Integer> sc = new ArrayList<>();
+        slots = new short[Character.MAX_VALUE + 1];
+        Arrays.fill(slots, (short) -1);
+        for (char c : PhoneticTable.CHARS)
+            slots[c] = (short) PhoneticTable.bit(c);
+        int ns = PhoneticTable.SIZE;
+        int i = 0;
+        for (CharSequence p : patterns) {
+            FoneticPattern fp = this.patterns[i] = new FoneticPattern(p);
+            if (fp.length() >= 2 && fp.length() <= BitParallelScan.MAX_LENGTH)
+                sc.add(i);
+            i++;
+            for (int k = 0; k < fp.length(); k++) {
+                char c = fp.chars[k];
+                if (slots[c] < 0) {
+                    if (ns == Short.MAX_VALUE)
+                        throw new IllegalArgumentException("Too many distinct chars in patterns");
+                    slots[c] = (short) ns++;
+                }
+            }
+        }
+        nslots  = ns;
+        scanned = sc.stream().mapToInt(Integer::intValue).toArray();
+
+        // first-fit decreasing: longer patterns are placed first, each
+        // into the first lane with enough free positions
+        int nf = scanned.length;
+        Integer[] order = new Integer[nf];
+        for (int f = 0; f < nf; f++)
+            order[f] = f;
+        Arrays.sort(order, (x, y) -> this.patterns[scanned[y]].length()
+                                     - this.patterns[scanned[x]].length());
+        int[] used = new int[nf];          // positions taken in a lane
+        int[] lane = new int[nf];          // lane and offset of a pattern
+        int[] offs = new int[nf];
+        int nl = 0;
+        for (int f : order) {
+            int m = this.patterns[scanned[f]].length();
+            int l = 0;
+            while (l < nl && used[l] + m > BitParallelScan.MAX_LENGTH)
+                l++;
+            if (l == nl)
+                nl++;
+            lane[f] = l;
+            offs[f] = used[l];
+            used[l] += m;
+        }
+        lanes    = nl;
+        starts   = new long[nl];
+        full     = new long[nl];
+        lasts    = new long[nl];
+        first    = new int[nl + 1];
+        segments = new int[nf];
+        for (int f = 0; f < nf; f++) {
+            int m = this.patterns[scanned[f]].length();
+            int l = lane[f];
+            starts[l] |= 1L << offs[f];
+            full[l]   |= (m == 64 ? -1L : (1L << m) - 1) << offs[f];
+            lasts[l]  |= 1L << (offs[f] + m - 1);
+            first[l + 1]++;
+        }
+        for (int l = 0; l < nl; l++)
+            first[l + 1] += first[l];
+        // offsets in a lane grow in order of placement
+        int[] pos = Arrays.copyOf(first, nl);
+        for (int f : order)
+            segments[pos[lane[f]]++] = f;
+
+        int nb = PhoneticTable.SIZE;
+        masks   = new long[nb * nl * 3];
+        eqOther = new long[(ns - nb) * nl];
+        for (int f = 0; f < nf; f++) {
+            FoneticPattern p = this.patterns[scanned[f]];
+            int l = lane[f];
+            for (int k = 0; k < p.length(); k++) {
+                long bit = 1L << (offs[f] + k);
+                int  s   = slots[p.chars[k]];
+                if (s < nb)
+                    masks[(s * nl + l) * 3] |= bit;
+                else
+                    eqOther[(s - nb) * nl + l] |= bit;
+                for (long r = p.subs[k]; r != 0; r &= r - 1) {
+                    int c = Long.numberOfTrailingZeros(r);
+                    if (c != p.bits[k])
+                        masks[(c * nl + l) * 3 + 1] |= bit;
+                }
+                for (long r = p.digraphs[k]; r != 0; r &= r - 1)
+                    masks[(Long.numberOfTrailingZeros(r) * nl + l) * 3 + 2] |= bit;
+            }
+        }
+
+        // only the first two chars of a pattern can be
+        // reached directly from the first row
+        words = (nl + 63) >>> 6;
+        triggers = new long[ns * words];
+        digraphTriggers = new long[nb * words];
+        for (int s = 0; s < ns; s++) {
+            for (int l = 0; l < nl; l++) {
+                long bit  = 1L << l;
+                long head = starts[l] | starts[l] << 1;
+                if (s < nb) {
+                    int k = (s * nl + l) * 3;
+                    if (((masks[k] | masks[k + 1] | masks[k + 2]) & head) != 0)
+                        triggers[s * words + (l >>> 6)] |= bit;
+                    if (((masks[k] | masks[k + 2]) & head) != 0)
+                        digraphTriggers[s * words + (l >>> 6)] |= bit;
+                } else if ((eqOther[(s - nb) * nl + l] & head) != 0)
+                    triggers[s * words + (l >>> 6)] |= bit;
+            }
+        }
+    }
+
+
+    /**
+     * Number of patterns in this set
+     */
+    public int size() {
+        return patterns.length;
+    }
+
+
+    /**
+     * Pattern at given index, as passed to
+     * {@link FoneticSearch#compile(Collection)}
+     */
+    public FoneticPattern get(int index) {
+        return patterns[index];
+    }
+
+}
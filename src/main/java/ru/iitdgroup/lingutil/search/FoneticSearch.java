@@ -4,14 +4,26 @@ import static ru.iitdgroup.lingutil.collect.LetterSet.of;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.BitSet;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.IntPredicate;
 
 import ru.iitdgroup.lingutil.collect.CharMap;
 import ru.iitdgroup.lingutil.collect.LetterSet;
 import ru.iitdgroup.lingutil.collect.CharTable;
+import ru.iitdgroup.lingutil.collect.TrieMap;
+import ru.iitdgroup.lingutil.collect.TrieMap.TrieCursor;
 import ru.iitdgroup.lingutil.match.ScoredMatch;
+import ru.iitdgroup.lingutil.text.Folding;
+import ru.iitdgroup.lingutil.text.Words;
 
 
 /**
@@ -36,15 +48,29 @@ import ru.iitdgroup.lingutil.match.ScoredMatch;
  * This restriction is made by assumption that the vast majority 
  * of misprints are one-char edits and transpositions.
  * </ul>
+ * <p>
+ * An instance created from {@link Config} is immutable and may be 
+ * shared by any number of threads, as all mutable state of a search 
+ * is kept in a {@link FoneticWorkspace}, either given or thread-local:
+ * <blockquote><pre>
+ * static final FoneticSearch FS = new FoneticSearch(FoneticSearch.Config.builder()
+ *                                                       .setGapCost(0.7)
+ *                                                       .setBitParallelLength(64)
+ *                                                       .build());
+ * </pre></blockquote>
+ * An instance created by default constructor may be configured by 
+ * setters, also while searches run: each search takes configuration 
+ * once at its start and keeps it to the end.
  * 
  * @author Salauyou
  */
-public class FoneticSearch {
+public class FoneticSearch implements Searcher {
 
-    double substCost   = 0.5;
-    double digraphCost = 0.5;
-    double gapCost     = 1.0;
-    double replaceCost = 2.0;
+    // configuration of an instance created from `Config`, or null
+    // if it is mutable; setters replace `config` by a changed copy
+    final Config      fixed;
+    volatile Config   config;
+    final FilterStats filterStats = new FilterStats();
     
     final static CharMap<LetterSet> SUBS 
         = CharMap.<LetterSet>create()
@@ -131,30 +157,198 @@ public class FoneticSearch {
               .put("ZH", of("GJ"))
               .put("ZZ", of("CZ"))
               .makeImmutable();
+    
+    final static PhoneticTable TABLE = PhoneticTable.of(SUBS, DIGRAPHS);
+    
+    // chars searched at once by `findBest()`, after which max cost is tightened
+    final static int BEST_CHUNK = 2048;
+    
+    // word-pattern pairs scored by a task of `getScores()` on executor
+    final static int BATCH_PAIRS = 4096;
+    
+    // a row is listed by `candidates()` if positions set at two previous 
+    // rows, times this, exceed text length
+    final static int DENSE_ROW = 8;
+    
+    // worse matches cost more, of equal costs the one starting farther is worse
+    final static Comparator<ScoredMatch> WORST_FIRST 
+        = Comparator.<ScoredMatch>comparingDouble(m -> m.score).thenComparingInt(m -> m.start).reversed();
 
     
     
+    /**
+     * Creates an instance with default configuration, 
+     * which may be changed by setters
+     */
+    public FoneticSearch() {
+        this(Config.DEFAULT, false);
+    }
+    
+    
+    /**
+     * Creates an immutable instance with given configuration
+     */
+    public FoneticSearch(Config config) {
+        this(config, true);
+    }
+    
+    
+    private FoneticSearch(Config config, boolean frozen) {
+        this.fixed  = frozen ? config : null;
+        this.config = config;
+    }
+    
+    
+    /**
+     * Snapshot of current configuration
+     */
+    public Config getConfig() {
+        return config();
+    }
+    
+    
+    
     public FoneticSearch setSubstitutionCost(double cost) {
-        this.substCost = cost;
-        return this;
+        return update(b -> b.setSubstitutionCost(cost));
     }
     
     
     public FoneticSearch setDigraphCost(double cost) {
-        this.digraphCost = cost;
-        return this;
+        return update(b -> b.setDigraphCost(cost));
     }
     
     
     public FoneticSearch setGapCost(double cost) {
-        this.gapCost = cost;
-        return this;
+        return update(b -> b.setGapCost(cost));
     }
     
     
     public FoneticSearch setReplaceCost(double cost) {
-        this.replaceCost = cost;
-        return this;
+        return update(b -> b.setReplaceCost(cost));
+    }
+    
+    
+    /**
+     * If `quantum` is positive, costs are rounded to multiples of it 
+     * and search matrix is computed on int units of `quantum` rather than 
+     * on doubles, which takes half as much memory for rows and has no 
+     * floating-point compares in the inner loop. For costs, which are
+     * multiples of `quantum` representable exactly as doubles (like 
+     * default ones and quantum 0.5), results are the same as with double 
+     * costs. Zero (default) means double costs
+     */
+    public FoneticSearch setCostQuantum(double quantum) {
+        return update(b -> b.setCostQuantum(quantum));
+    }
+    
+    
+    /**
+     * Enables filter stage, which looks up pieces of pattern in index 
+     * of phonetic q-grams of text and runs search only in windows around
+     * their occurrences. By pigeonhole principle, a match costing `maxCost` 
+     * cannot break more than 2 &times; floor(maxCost / least edit cost) 
+     * pieces, so the rest of pieces occur intact. Filter is applied if 
+     * pieces of 2 or more chars can be taken, i. e. for long enough
+     * patterns or small enough `maxCost`, and results are the same as 
+     * without it.
+     * <p>
+     * Index is built once per {@link FoneticText}, so filter pays off 
+     * when many patterns are searched in a prepared text. 
+     * See {@link #getFilterStats()} for its effect
+     */
+    public FoneticSearch setQGramFilter(boolean enabled) {
+        return update(b -> b.setQGramFilter(enabled));
+    }
+    
+    
+    /**
+     * If enabled, texts and patterns given as char sequences are folded 
+     * to upper case without Latin diacritics by {@link Folding} while 
+     * they are read into primitive arrays, so "pizzéria" is searched as 
+     * "PIZZERIA" without making a copy of text. Folding keeps length, 
+     * so offsets of matches are offsets in original text. Prepared texts 
+     * (see {@link FoneticText#of(CharSequence, boolean)}), compiled patterns,
+     * pattern sets and dictionary keys are taken as they are
+     */
+    public FoneticSearch setFolding(boolean enabled) {
+        return update(b -> b.setFolding(enabled));
+    }
+    
+    
+    /**
+     * If enabled (default), rows where most positions are to be visited, 
+     * i. e. the first two rows and ones following dense rows, are computed 
+     * in two passes: a branch-free pass over all chars of text lists 
+     * positions whose char or digraph may match pattern char, and the 
+     * recurrence runs only at them. Otherwise all positions are visited 
+     * at the first two rows, and neighbours of set positions at others. 
+     * Results are the same
+     */
+    public FoneticSearch setDenseRows(boolean enabled) {
+        return update(b -> b.setDenseRows(enabled));
+    }
+    
+    
+    /**
+     * Enables search through suffix array of text, which is traversed 
+     * as a trie of text substrings: the search matrix is computed 
+     * column by column along trie paths, from each substring to its 
+     * continuations, so all occurrences of a substring are handled 
+     * at once, and a path is left as soon as no continuation can 
+     * match within `maxCost`. Ends found this way are verified by 
+     * scalar engine in windows around them, and results are the same 
+     * as without it.
+     * <p>
+     * Suffix array is built once per {@link FoneticText}, in time 
+     * of several passes of search over it, so it pays off when a text 
+     * is queried by many patterns. Then search time depends on pattern 
+     * length, `maxCost` and number of matches rather than on text length. 
+     * Takes precedence over bit-parallel scan and q-gram filter
+     */
+    public FoneticSearch setSuffixArray(boolean enabled) {
+        return update(b -> b.setSuffixArray(enabled));
+    }
+    
+    
+    /**
+     * Enables filter for long patterns, which needs no index: pattern is 
+     * split into 2 &times; floor(maxCost / least edit cost) + 1 pieces, 
+     * so at least one of them occurs in a match intact up to substitutions 
+     * within phonetic classes (see {@link #setQGramFilter(boolean)}). Text 
+     * is scanned once for pieces, comparing phonetic classes of up to 10 
+     * chars packed in a `long` at each position, and search runs only 
+     * in windows around their occurrences. Filter is applied if pieces 
+     * of 3 or more chars can be taken, and results are the same as without 
+     * it. Takes precedence over bit-parallel scan and q-gram filter
+     */
+    public FoneticSearch setPigeonholeFilter(boolean enabled) {
+        return update(b -> b.setPigeonholeFilter(enabled));
+    }
+    
+    
+    /**
+     * Counters of text positions skipped by q-gram filter 
+     * and bit-parallel scan
+     */
+    public FilterStats getFilterStats() {
+        return filterStats;
+    }
+    
+    
+    /**
+     * Patterns of 2 to `maxLength` chars will be searched by bit-parallel
+     * engine, which scans text for possible match ends taking a constant 
+     * number of word operations per char and cost level, and then 
+     * computes exact matches only near found ends. Results are the same 
+     * as of scalar search. 
+     * <p>
+     * Worth enabling for texts much longer than patterns. Lengths above 64 
+     * are not supported and searched by scalar engine, as well as searches 
+     * allowing more than 31 least non-zero costs in total. By default, 
+     * only scalar engine is used
+     */
+    public FoneticSearch setBitParallelLength(int maxLength) {
+        return update(b -> b.setBitParallelLength(maxLength));
     }
     
     
@@ -163,7 +357,11 @@ public class FoneticSearch {
      * Use this if many words need to be searched in one input,
      * in conjunction with {@link FoneticSearch#findOccurrences(CharSequence, 
      * LetterSet[], CharSequence, double)} 
+     * 
+     * @deprecated prepare text by {@link FoneticText#of(CharSequence)} instead,
+     * which keeps digraphs in primitive bit masks
      */
+    @Deprecated
     public static LetterSet[] extractDigraphs(CharSequence text) {
         LetterSet[] ds = new LetterSet[text.length()];
         for (int j = 1; j < text.length(); j++) 
@@ -173,13 +371,96 @@ public class FoneticSearch {
     
     
     
+    /**
+     * Compiles `pattern` for repeated search: phonetic substitutions
+     * and digraphs of every pattern char are resolved once into bit masks.
+     * Use this if the same pattern is searched in many texts, e. g.:
+     * <blockquote><pre>
+     * FoneticPattern p = FoneticSearch.compile("PIZZA");
+     * for (String doc : docs)
+     *     matches.addAll(fs.findOccurrences(doc, p, 2.5));
+     * </pre></blockquote>
+     */
+    public static FoneticPattern compile(CharSequence pattern) {
+        return new FoneticPattern(pattern);
+    }
+    
+    
+    /**
+     * Compiles `pattern`, folding its chars if `fold` is set, 
+     * see {@link #setFolding(boolean)}
+     */
+    public static FoneticPattern compile(CharSequence pattern, boolean fold) {
+        return new FoneticPattern(pattern, fold);
+    }
+    
+    
+    
+    /**
+     * Compiles `patterns` for single-pass search by {@link FoneticSearch#search(
+     * CharSequence, FoneticPatternSet, double, BiConsumer)}. Patterns are
+     * indexed in iteration order of the collection
+     */
+    public static FoneticPatternSet compile(Collection<? extends CharSequence> patterns) {
+        return new FoneticPatternSet(patterns);
+    }
+    
+    
+    
     /**
      * Searches for "phonetically-equivalent" occurrences of `pattern` in `text`, 
      * allowing phonetic substitutions, one-char gaps in either `pattern` or `text`
-     * and one-char replacements
+     * and one-char replacements.
+     * <p>
+     * If many words need to be searched in one input, prepare it once 
+     * by {@link FoneticText#of(CharSequence)} and pass instead of `text`
      */
     public List<ScoredMatch> findOccurrences(CharSequence text, CharSequence pattern, double maxCost) {
-        return findOccurrences(text, extractDigraphs(text), pattern, maxCost);
+        FoneticWorkspace ws = FoneticWorkspace.acquire();
+        try {
+            return findOccurrences(text, pattern, maxCost, ws);
+        } finally {
+            ws.release();
+        }
+    }
+    
+    
+    
+    /**
+     * The same as {@link FoneticSearch#findOccurrences(CharSequence, CharSequence, double)},
+     * but uses given workspace, so nothing except resulting matches is allocated
+     */
+    public List<ScoredMatch> findOccurrences(CharSequence text, CharSequence pattern, double maxCost,
+                                             FoneticWorkspace ws) {
+        Config cfg = config();
+        return findOccurrences(cfg, ws.text(text, cfg.folding), ws.pattern(pattern, cfg.folding), maxCost, ws);
+    }
+    
+    
+    
+    /**
+     * The same as {@link FoneticSearch#findOccurrences(CharSequence, CharSequence, double)}
+     * for compiled pattern
+     */
+    public List<ScoredMatch> findOccurrences(CharSequence text, FoneticPattern pattern, double maxCost) {
+        FoneticWorkspace ws = FoneticWorkspace.acquire();
+        try {
+            return findOccurrences(text, pattern, maxCost, ws);
+        } finally {
+            ws.release();
+        }
+    }
+    
+    
+    
+    /**
+     * The same as {@link FoneticSearch#findOccurrences(CharSequence, FoneticPattern, double)},
+     * but uses given workspace
+     */
+    public List<ScoredMatch> findOccurrences(CharSequence text, FoneticPattern pattern, double maxCost,
+                                             FoneticWorkspace ws) {
+        Config cfg = config();
+        return findOccurrences(cfg, ws.text(text, cfg.folding), pattern, maxCost, ws);
     }
     
     
@@ -188,228 +469,1909 @@ public class FoneticSearch {
      * Searches for "phonetically-equivalent" occurrences of `pattern` in `text`, 
      * allowing phonetic substitutions, one-char gaps in either `text` 
      * or `pattern` and one-char replacements.
-     * <p>
-     * This method is preferred over 
-     * {@link FoneticSearch#findOccurrences(CharSequence, CharSequence, double)} 
-     * when many words need to be searched in one input, e. g.:
-     * <blockquote><pre>
-     * String text = ...;
-     * List&lt;String&gt; words = ...;
-     * List&lt;ScoredMatch&gt; matches = new ArrayList&lt;&gt;();
-     * LetterSet[] ds = FoneticSearch.extractDigraphs(text);
-     * for (String w : words)
-     *     matches.addAll(FoneticSearch.findOccurrences(text, ds, w, 2.5));
-     * </pre></blockquote>
+     * 
+     * @deprecated use {@link FoneticSearch#findOccurrences(CharSequence, CharSequence, double)}
+     * with text prepared by {@link FoneticText#of(CharSequence)}
      */
+    @Deprecated
     public List<ScoredMatch> findOccurrences(CharSequence text, LetterSet[] textDigraphs, 
                                              CharSequence pattern, double maxCost) {
+        FoneticWorkspace ws = FoneticWorkspace.acquire();
+        try {
+            return findOccurrences(text, textDigraphs, pattern, maxCost, ws);
+        } finally {
+            ws.release();
+        }
+    }
+    
+    
+    
+    /**
+     * @deprecated use {@link FoneticSearch#findOccurrences(CharSequence, CharSequence, 
+     * double, FoneticWorkspace)} with text prepared by {@link FoneticText#of(CharSequence)}
+     */
+    @Deprecated
+    public List<ScoredMatch> findOccurrences(CharSequence text, LetterSet[] textDigraphs, 
+                                             CharSequence pattern, double maxCost,
+                                             FoneticWorkspace ws) {
+        return findOccurrences(ws.text(text, textDigraphs), ws.pattern(pattern), maxCost, ws);
+    }
+    
+    
+    
+    /**
+     * @deprecated use {@link FoneticSearch#findOccurrences(CharSequence, FoneticPattern, double)}
+     * with text prepared by {@link FoneticText#of(CharSequence)}
+     */
+    @Deprecated
+    public List<ScoredMatch> findOccurrences(CharSequence text, LetterSet[] textDigraphs, 
+                                             FoneticPattern pattern, double maxCost) {
+        FoneticWorkspace ws = FoneticWorkspace.acquire();
+        try {
+            return findOccurrences(text, textDigraphs, pattern, maxCost, ws);
+        } finally {
+            ws.release();
+        }
+    }
+    
+    
+    
+    /**
+     * @deprecated use {@link FoneticSearch#findOccurrences(CharSequence, FoneticPattern, 
+     * double, FoneticWorkspace)} with text prepared by {@link FoneticText#of(CharSequence)}
+     */
+    @Deprecated
+    public List<ScoredMatch> findOccurrences(CharSequence text, LetterSet[] textDigraphs, 
+                                             FoneticPattern pattern, double maxCost,
+                                             FoneticWorkspace ws) {
+        return findOccurrences(ws.text(text, textDigraphs), pattern, maxCost, ws);
+    }
+    
+    
+    
+    /**
+     * Searches for occurrences of compiled `pattern` in prepared `text`
+     * using given workspace, so nothing except resulting matches is allocated. 
+     * All other overloads end up here
+     */
+    public List<ScoredMatch> findOccurrences(FoneticText text, FoneticPattern pattern, double maxCost,
+                                             FoneticWorkspace ws) {
+        return findOccurrences(config(), text, pattern, maxCost, ws);
+    }
+    
+    
+    private List<ScoredMatch> findOccurrences(Config cfg, FoneticText text, FoneticPattern pattern, 
+                                              double maxCost, FoneticWorkspace ws) {
+        int m = pattern.length();
+        if (cfg.suffixArray) {
+            int n = suffixCandidates(cfg, text, pattern, maxCost, ws);
+            if (n >= 0)
+                return verify(cfg, text, pattern, ws.lo, ws.hi, 0, n, maxCost, ws);
+        }
+        if (cfg.pigeonhole) {
+            int n = pieceCandidates(cfg, text, pattern, maxCost, ws);
+            if (n >= 0)
+                return verify(cfg, text, pattern, ws.lo, ws.hi, 0, n, maxCost, ws);
+        }
+        if (m >= 2 && m <= cfg.bitParallelLength) {
+            BitParallelScan bp = ws.bitParallelScan();
+            int n = bp.scan(text, pattern, cfg.substCost, cfg.digraphCost, cfg.gapCost, cfg.replaceCost, 
+                            maxCost);
+            if (n >= 0)
+                return verify(cfg, text, pattern, bp.ends, bp.ends, 0, n, maxCost, ws);
+        }
+        if (cfg.qGramFilter) {
+            int n = qGramCandidates(cfg, text, pattern, maxCost, ws);
+            if (n >= 0)
+                return verify(cfg, text, pattern, ws.lo, ws.hi, 0, n, maxCost, ws);
+        }
+        List<ScoredMatch> res = new ArrayList<>();
+        findScalar(cfg, text, pattern, maxCost, 1, 0, ws, res);
+        return res;
+    }
+    
+    
+    
+    /**
+     * Searches for occurrences of compiled `pattern` in prepared `text`, 
+     * starting at positions `from` (inclusive) to `to` (exclusive), e. g. 
+     * around a candidate start taken from an index. Only a window holding 
+     * matches from these starts is searched, and only paths from these 
+     * starts are computed, so the work is bound to a diagonal band 
+     * of search matrix, which width depends on `to - from` and 
+     * on how far `maxCost` allows a match to drift from diagonal.
+     * <p>
+     * Other starts are not considered, so a position may be reached 
+     * from a start in range even if it is reached cheaper from 
+     * a start out of range, and a match may end farther than 
+     * {@link #findOccurrences(FoneticText, FoneticPattern, double, 
+     * FoneticWorkspace)} gives for the same start
+     */
+    public List<ScoredMatch> findOccurrences(FoneticText text, FoneticPattern pattern, double maxCost,
+                                             int from, int to, FoneticWorkspace ws) {
         int len = text.length();
+        if (from < 0 || to > len || from > to)
+            throw new IndexOutOfBoundsException();
+        if (from == to)
+            return new ArrayList<>();
         
-        double[] t1 = new double[len + 2];  // submatch costs
-        double[] t0 = initialT(len);        
-        int[]    s1 = new int[len + 2];     // starting positions
-        int[]    s0 = initialS(len);
-        
-        BitSet   r0 = initialR(len);        // set of positions marked to visit
-        int[]    v  = initialV(len);        // positions to visit at next rows
-        int[]    v0 = initialV(len);   
-       
-        int nv  = len;                      // count of positions to visit
-        int nv0 = len;
-        int nv1 = 0;
-        
-        boolean f0 = false;                 // found anything?
-        boolean f1 = true;
+        // a match of m-char pattern spans at most 2m chars
+        int wt = Math.min(len, to + 2 * pattern.length() + 4);
+        FoneticText window = ws.window.set(text, from, wt);
         
-        for (int i = 0; i < pattern.length(); i++) {
-            double[]  t  = new double[len + 2];
-            int[]     s  = new int[len + 2];
-            int[]     v1 = new int[len];           
-            BitSet    r1 = new BitSet(len);
-            
-            char      a  = pattern.charAt(i);
-            LetterSet la = i == 0 ? null : DIGRAPHS.get(pattern.charAt(i - 1), a);
-            LetterSet sa = SUBS.get(a);       
-            
-            for (int k = 0; k < nv; k++) {
-                int    j    = v[k];
-                int    ss   = -1;
-                double cost = -1.0;        
-                char   b    = text.charAt(j);
-                double cc   = Double.MAX_VALUE;
-                
-                if (a == b)
-                    cost = 0;
-                else if ((sa != null && sa.contains(b)) 
-                      || (SUBS.containsKey(b) && SUBS.get(b).contains(a)))
-                    cost = substCost;
-                                
-                // find best match/substitution/gap/replace
-                if (cost >= 0) {
-                    if (t0[j + 1] > 0) {
-                        ss = s0[j + 1];
-                        cc = t0[j + 1] + cost;
-                    }
-                    if (t0[j] > 0 && t0[j] + cost + gapCost < cc) {
-                        ss = s0[j];
-                        cc = t0[j] + cost + gapCost;
-                    }
-                    if (t1[j + 1] > 0 && t1[j + 1] + cost + gapCost < cc) {
-                        ss = s1[j + 1];
-                        cc = t1[j + 1] + cost + gapCost;
-                    }
-                    if (t1[j] > 0 && t1[j] + cost + replaceCost < cc) {
-                        ss = s1[j];
-                        cc = t1[j] + cost + replaceCost;
-                    }
-                }
-                // try digraphs
-                LetterSet lb = textDigraphs[j];
-                if (la != null && la.contains(b)) {
-                    if (t1[j + 1] > 0 && t1[j + 1] + digraphCost < cc) {
-                        cc = t1[j + 1] + digraphCost;
-                        ss = s1[j + 1];
-                    }
-                    if (t1[j] > 0 && t1[j] + digraphCost + gapCost < cc) {
-                        cc = t1[j] + digraphCost + gapCost;
-                        ss = s1[j];
-                    }
-                }
-                if (lb != null && lb.contains(a)) {
-                    if (t0[j] > 0 && t0[j] + digraphCost < cc) {
-                        cc = t0[j] + digraphCost;
-                        ss = s0[j];
-                    }
-                    if (t1[j] > 0 && t1[j] + digraphCost + gapCost < cc) {
-                        cc = t1[j] + digraphCost + gapCost;
-                        ss = s1[j];
-                    }
-                }                
-                if (la != null && lb != null && t1[j] > 0 && lb.intersect(la) 
-                    && t1[j] + digraphCost < cc) {
-                    cc = t1[j] + digraphCost;
-                    ss = s1[j];
-                }
-                
-                // set cost and start position for i, j-substring
-                if (ss >= 0 && cc - 1.0 <= maxCost) {
-                    t[j + 2] = cc;
-                    s[j + 2] = ss;
-                    f0 = true;
-                    // mark positions for visit
-                    for (int p = j + 1; p <= j + 2 && p < len; p++) {
-                        if (!r0.get(p)) {
-                            r0.set(p);
-                            v0[nv0++] = p;
-                        }
-                        if (!r1.get(p)) {
-                            r1.set(p);
-                            v1[nv1++] = p;
-                        }
-                    }
+        // the first digraph of window pairs with a char before `from`, 
+        // which no match in band may take
+        if (from > 0)
+            window.digraphs[0] = 0;
+        return findAnchored(config(), window, pattern, maxCost, from, null, j -> j < to - from, null, ws);
+    }
+    
+    
+    
+    /**
+     * Searches for occurrences of `pattern` in `text`, which start 
+     * at word starts, and if `wholeWords` is set, end at word ends,
+     * by natural word boundaries, see {@link Words#wordStarts(CharSequence)}
+     */
+    public List<ScoredMatch> findWordOccurrences(CharSequence text, CharSequence pattern, double maxCost,
+                                                 boolean wholeWords) {
+        FoneticWorkspace ws = FoneticWorkspace.acquire();
+        try {
+            Config cfg = config();
+            return findAnchored(cfg, ws.text(text, cfg.folding), ws.pattern(pattern, cfg.folding), maxCost, 
+                                0, null, Words.wordStarts(text), wholeWords ? Words.wordEnds(text) : null, ws);
+        } finally {
+            ws.release();
+        }
+    }
+    
+    
+    
+    /**
+     * Searches for occurrences of compiled `pattern` in prepared `text`, 
+     * which start at positions `starts` (e. g. of words found by 
+     * {@link Words#splitIntoWords(String)}), and if `isEnd` is not null, 
+     * end at positions it accepts. Only paths from given starts are 
+     * computed, so besides the first two rows, search visits positions 
+     * close to them, i. e. fewer by about the average word length.
+     * <p>
+     * As with {@link #findOccurrences(FoneticText, FoneticPattern, double, 
+     * int, int, FoneticWorkspace)}, other starts are not considered, and 
+     * for each start, the match ending farthest at an accepted end is taken
+     */
+    public List<ScoredMatch> findOccurrences(FoneticText text, FoneticPattern pattern, double maxCost,
+                                             int[] starts, IntPredicate isEnd, FoneticWorkspace ws) {
+        return findAnchored(config(), text, pattern, maxCost, 0, starts, null, isEnd, ws);
+    }
+    
+    
+    
+    /**
+     * The same as {@link FoneticSearch#findOccurrences(FoneticText, FoneticPattern, 
+     * double, int[], IntPredicate, FoneticWorkspace)} for starts accepted by `isStart`
+     */
+    public List<ScoredMatch> findOccurrences(FoneticText text, FoneticPattern pattern, double maxCost,
+                                             IntPredicate isStart, IntPredicate isEnd, FoneticWorkspace ws) {
+        return findAnchored(config(), text, pattern, maxCost, 0, null, isStart, isEnd, ws);
+    }
+    
+    
+    
+    /**
+     * Seeds the first row only at columns of given starts, 
+     * and before collecting matches, clears columns 
+     * of the last two rows not accepted by `isEnd`. If `text` is 
+     * a window at `offset` of a longer text, matches are shifted 
+     * by `offset`, and its start 0 is not a start of text
+     */
+    private List<ScoredMatch> findAnchored(Config cfg, FoneticText text, FoneticPattern pattern, 
+                                           double maxCost, int offset, int[] starts, IntPredicate isStart, 
+                                           IntPredicate isEnd, FoneticWorkspace ws) {
+        int len = text.length();
+        List<ScoredMatch> res = new ArrayList<>();
+        prepare(cfg, ws, len);
+        limitFirstRow(cfg, ws, 0, len + 2, 0);
+        try {
+            int seeds = 0;
+            for (int z = 0, n = starts != null ? starts.length : len + 1; z < n; z++) {
+                int j = starts != null ? starts[z] : z;
+                if (j < 0 || j > len)
+                    throw new IndexOutOfBoundsException("Start " + j + " is out of text");
+                if (isStart == null || isStart.test(j)) {
+                    // start 0 of text is also taken from column 0
+                    limitFirstRow(cfg, ws, j + offset == 0 ? 0 : j + 1, j + 2, 1);
+                    seeds++;
                 }
             }
-            // nothing found on current and previous rows
-            if (!f0 && !f1)
-                return Collections.emptyList();
-           
-            f1 = f0;
-            f0 = false;
-            s1 = s0;
-            s0 = s;
-            t1 = t0;
-            t0 = t;
-            
-            v   = v0;
-            v0  = v1;
-            r0  = r1;
-            nv  = nv0;
-            nv0 = nv1;
-            nv1 = 0;
-        }    
-        
-        // collect matches
-        List<ScoredMatch> res = new ArrayList<>(); 
-        BitSet st = new BitSet(len);
-        for (int j = text.length() + 1; j > 0; j--) {
-            if (t0[j] != 0 && !st.get(s0[j])) {
-                st.set(s0[j]);
-                res.add(new ScoredMatch(s0[j], j - 1, t0[j] - 1));
-            }
-            if (t1[j] != 0 && !st.get(s1[j])) {
-                if (t1[j] - 1 + gapCost <= maxCost) {
-                    st.set(s1[j]);
-                    res.add(new ScoredMatch(s1[j], j - 1, t1[j] - 1 + gapCost));
+            if (seeds == 0)
+                return res;
+            int rows = computeRows(cfg, text, pattern, maxCost, ws);
+            if (rows < 0)
+                return res;
+            int k0 = (rows >> 2) - 1, k1 = (rows & 3) - 1;
+            if (isEnd != null) {
+                for (int j = 1; j <= len + 1; j++) {
+                    if (!isEnd.test(j - 1))
+                        clearColumn(cfg, ws, j, k0, k1);
                 }
             }
+            collectMatches(cfg, len, 1, offset, k0, k1, maxCost, ws, res);
+            return res;
+        } finally {
+            limitFirstRow(cfg, ws, 0, len + 2, 1);
+        }
+    }
+    
+    
+    /**
+     * Clears column `j` at rows of slots `k0` and `k1` (the first row 
+     * if -1), so no match is taken there
+     */
+    private void clearColumn(Config cfg, FoneticWorkspace ws, int j, int k0, int k1) {
+        if (cfg.costQuantum > 0) {
+            (k0 < 0 ? ws.initialQ : ws.q[k0])[j] = 0;
+            (k1 < 0 ? ws.initialQ : ws.q[k1])[j] = 0;
+        } else {
+            (k0 < 0 ? ws.initialT : ws.t[k0])[j] = 0;
+            (k1 < 0 ? ws.initialT : ws.t[k1])[j] = 0;
         }
-        res.sort((m1, m2) -> m1.start - m2.start);
+    }
+    
+    
+    
+    /**
+     * Finds exact matches ending in given ranges `lo[z]..hi[z]` for `z` 
+     * in `from..to`, sorted by `lo`, found by bit-parallel scan or q-gram 
+     * filter. Close ranges are grouped, and each group is searched 
+     * by scalar engine in a window wide enough to hold any match 
+     * ending in the group
+     */
+    private List<ScoredMatch> verify(Config cfg, FoneticText text, FoneticPattern pattern, 
+                                     int[] lo, int[] hi, int from, int to, 
+                                     double maxCost, FoneticWorkspace ws) {
+        int len     = text.length();
+        int covered = 0;
+        
+        // a match of m-char pattern spans at most 2m chars, 
+        // and costs at its end depend on at most 2m chars before it
+        int reach = 2 * pattern.length() + 4;
+        List<ScoredMatch> res = new ArrayList<>();
+        FoneticText window = ws.window;
+        for (int z = from; z < to; ) {
+            int l = lo[z], h = hi[z];
+            while (++z < to && lo[z] - h <= reach)
+                h = Math.max(h, hi[z]);
+            int wf = Math.max(0, l - reach);
+            int wt = Math.min(len, h + 1);
+            window.set(text, wf, wt);
+            covered += wt - wf;
+            
+            // groups are farther than any match span, so they
+            // cannot share starts, and results come sorted
+            findScalar(cfg, window, pattern, maxCost, l - wf + 2, wf, ws, res);
+        }
+        filterStats.positions.add(len);
+        filterStats.skipped.add(len - covered);
         return res;
     }
     
-  
+    
+    
+    /**
+     * Puts into workspace ranges of possible match ends found by q-gram 
+     * filter, sorted by range start, and returns their number, or -1 if 
+     * the filter is not applicable to `pattern` at `maxCost`
+     */
+    private int qGramCandidates(Config cfg, FoneticText text, FoneticPattern pattern, double maxCost, 
+                                FoneticWorkspace ws) {
+        int    m     = pattern.length();
+        double least = Math.min(cfg.gapCost, Math.min(cfg.replaceCost, cfg.digraphCost));
+        if (!(least > 0) || maxCost < 0 || maxCost / least > m)
+            return -1;
+        
+        // every edit, except substitution within a phonetic 
+        // class, breaks at most two pieces of pattern
+        int need = 2 * (int) Math.floor(maxCost / least + 1e-9) + 1;
+        int q    = Math.min(QGramIndex.MAX_Q, m / need);
+        if (q < 2)
+            return -1;
+        QGramIndex index   = text.qgrams(q);
+        long[]     entries = index.entries;
+        
+        // take `need` pieces occurring least often
+        int   total = m / q;
+        long[] ps   = ws.pieces(total);
+        for (int k = 0; k < total; k++) {
+            int code = index.code(pattern, k * q);
+            int from = index.first(code);
+            int to   = index.first(code + 1);
+            ps[k] = (long) (to - from) << 32 | k;
+        }
+        Arrays.sort(ps, 0, total);
+        int n = 0;
+        for (int z = 0; z < need; n += (int) (ps[z++] >>> 32));
+        long[] rs = ws.ranges(n);
+        n = 0;
+        for (int z = 0; z < need; z++) {
+            int k    = (int) ps[z];
+            int o    = k * q;
+            int code = index.code(pattern, o);
+            int rest = 2 * (m - o - q);       // pattern after piece spans 2 chars per char at most
+            for (int e = index.first(code); e < entries.length && QGramIndex.codeAt(entries[e]) == code; e++) {
+                long lo = QGramIndex.positionAt(entries[e]) + q - 1;
+                rs[n++] = lo << 32 | (lo + rest);
+            }
+        }
+        Arrays.sort(rs, 0, n);
+        ws.ensureRanges(n);
+        int[] lo = ws.lo;
+        int[] hi = ws.hi;
+        for (int z = 0; z < n; z++) {
+            lo[z] = (int) (rs[z] >>> 32);
+            hi[z] = (int) rs[z];
+        }
+        return n;
+    }
     
     
     
-    static final int      INITIAL_LEN = 4096;
-    static final double[] INITIAL_T = new double[INITIAL_LEN + 2];
-    static final int[]    INITIAL_S = new int[INITIAL_LEN + 2];
-    static final BitSet   INITIAL_R = new BitSet(INITIAL_LEN);
-    static final int[]    INITIAL_V = new int[INITIAL_LEN];
-
-    static {
-        Arrays.fill(INITIAL_T, 1.0);
-        for (int j = 2; j < INITIAL_S.length; j++)
-            INITIAL_S[j] = j - 1;
-        for (int j = 0; j < INITIAL_V.length; j++) {
-            INITIAL_V[j] = j;
-            INITIAL_R.set(j);
+    /**
+     * Puts into workspace ranges of possible match ends found by scan 
+     * of text for pieces of pattern, sorted by range start, and returns 
+     * their number, or -1 if the filter is not applicable to `pattern` 
+     * at `maxCost`
+     */
+    private int pieceCandidates(Config cfg, FoneticText text, FoneticPattern pattern, double maxCost, 
+                                FoneticWorkspace ws) {
+        int    m     = pattern.length();
+        double least = Math.min(cfg.gapCost, Math.min(cfg.replaceCost, cfg.digraphCost));
+        double max   = maxCost;
+        if (cfg.costQuantum > 0) {
+            least = Math.min(cfg.units(cfg.gapCost), 
+                             Math.min(cfg.units(cfg.replaceCost), cfg.units(cfg.digraphCost)));
+            max   = cfg.maxUnits(maxCost);
+        }
+        if (!(least > 0) || max < 0 || max / least > m)
+            return -1;
+        
+        // every edit, except substitution within a phonetic 
+        // class, breaks at most two pieces of pattern
+        int need = 2 * (int) Math.floor(max / least + 1e-9) + 1;
+        int q    = m / need;
+        if (q < 3)
+            return -1;
+        
+        // pieces are compared by classes of up to 10 first chars
+        int    p     = Math.min(q, 10);
+        long   mask  = (1L << 6 * p) - 1;
+        long[] codes = ws.codes(need);
+        for (int k = 0; k < need; k++) {
+            for (int i = k * q; i < k * q + p; i++)
+                codes[k] = codes[k] << 6 | QGramIndex.classOf(pattern.chars[i]);
+        }
+        int[]  lo   = ws.lo;
+        int[]  hi   = ws.hi;
+        int    n    = 0;
+        char[] cs   = text.chars;
+        long   code = 0;
+        for (int j = 0; j < text.length(); j++) {
+            code = (code << 6 | QGramIndex.classOf(cs[j])) & mask;
+            if (j < p - 1)
+                continue;
+            for (int k = 0; k < need; k++) {
+                if (codes[k] != code)
+                    continue;
+                if (n == lo.length || n == hi.length) {
+                    ws.ensureRanges(n + 1);
+                    lo = ws.lo;
+                    hi = ws.hi;
+                }
+                // pattern after piece spans 2 chars per char at most
+                lo[n]   = j;
+                hi[n++] = j + 2 * (m - k * q - p);
+            }
         }
+        return n;
     }
     
     
-    static double[] initialT(int size) {
-        if (size <= INITIAL_LEN)
-            return INITIAL_T;
-        else {
-            double[] t = new double[size + 2];
-            Arrays.fill(t, 1.0);
-            return t;
+    
+    /**
+     * Puts into workspace ranges of possible match ends (positions of 
+     * the last char) found by traversal of suffix array of `text`, sorted, 
+     * and returns their number, or -1 if pattern is too short to be 
+     * searched this way.
+     * <p>
+     * Each trie node is a substring, which occurrences start at the same 
+     * offset of search matrix, and has a column of costs of pattern prefixes 
+     * matching it from its start. Columns are computed by the same 
+     * recurrence as rows in {@link #computeRow}, transposed: a cell depends 
+     * on the last two columns, which are held for the current path. Cost 
+     * of a path from a single start is not less than cost of a cell 
+     * in full matrix, so every match found by full search is a path 
+     * here, and its end is taken
+     */
+    private int suffixCandidates(Config cfg, FoneticText text, FoneticPattern pattern, double maxCost, 
+                                 FoneticWorkspace ws) {
+        int m = pattern.length();
+        if (m < 2 || maxCost < 0)
+            return -1;
+        SuffixArray sa = text.suffixes();
+        
+        // costs as computed by search, with a margin for rounding 
+        // of fixed-point sums
+        double subst   = cfg.cost(cfg.substCost);
+        double digraph = cfg.cost(cfg.digraphCost);
+        double gap     = cfg.cost(cfg.gapCost);
+        double replace = cfg.cost(cfg.replaceCost);
+        double max     = (cfg.costQuantum > 0 ? cfg.maxUnits(maxCost) * cfg.costQuantum : maxCost) + 1e-9;
+        
+        // column for depth d is cols[d + 1] with row i at i + 1, 
+        // row -1 (empty prefix) at 0 is set at depth 0 only
+        int depth = 2 * m + 4;
+        FoneticWorkspace.SuffixPath path = ws.suffixPath(depth, m);
+        double[][] cols = path.cols;
+        cols[1][0] = 0;
+        int[] ends = path.ends;
+        int   n    = 0;
+        
+        // path is a stack of ranges of suffix array, node at depth d
+        // being `next[d]..to[d]` without children visited already
+        int[] to   = path.to;
+        int[] next = path.next;
+        int   d    = 0;
+        to[0] = sa.length;
+        while (d >= 0) {
+            // next child of node at depth d
+            int z = next[d];
+            while (z < to[d] && sa.charAt(z, d) < 0)
+                z++;
+            if (z >= to[d] || d + 1 > depth) {
+                d--;
+                continue;
+            }
+            int e = sa.groupEnd(z, to[d], d);
+            next[d] = e;
+            char c = (char) sa.charAt(z, d);
+            char p = d == 0 ? 0 : (char) sa.charAt(z, d - 1);
+            boolean alive = computeColumn(pattern, c, p, d > 0 ? PhoneticTable.index(p, c) : -1, 
+                                          cols[d], cols[d + 1], cols[d + 2], 
+                                          subst, digraph, gap, replace, max);
+            double[] col = cols[d + 2];
+            if (col[m] <= max || col[m - 1] + gap <= max) {
+                if (n + e - z > ends.length)
+                    ends = path.ends(n + e - z);
+                for (int y = z; y < e; y++)
+                    ends[n++] = sa.sa[y] + d;
+            }
+            // a column depends on two previous ones
+            if (alive || !dead(cols[d + 1])) {
+                d++;
+                to[d]   = e;
+                next[d] = z;
+            }
+        }
+        Arrays.sort(ends, 0, n);
+        
+        // search also takes start 0 from column 0 of the first row, 
+        // e. g. by replacement before the first char, which no path 
+        // from a suffix does, so ends near text start are all kept
+        int len = text.length(), k = len > 0 ? 1 : 0;
+        ws.ensureRanges(n + k);
+        int[] lo = ws.lo, hi = ws.hi;
+        if (k > 0) {
+            lo[0] = 0;
+            hi[0] = Math.min(len, depth) - 1;
         }
+        for (int y = 0; y < n; y++)
+            lo[y + k] = hi[y + k] = ends[y];
+        return n + k;
     }
     
     
-    static int[] initialS(int size) {
-        if (size <= INITIAL_LEN)
-            return INITIAL_S;
-        else {
-            int[] s = new int[size + 2];
-            for (int j = 2; j < s.length; j++)
-                s[j] = j - 1;
-            return s;
+    /**
+     * Computes column `col` for text char `c`, preceded by `p` (digraph 
+     * index `pc`, or -1 at depth 0), from columns `c1` (previous) and 
+     * `c2` (the one before) at a path of suffix trie. Returns whether any 
+     * cell is set
+     */
+    private boolean computeColumn(FoneticPattern pattern, char c, char p, int pc, 
+                                  double[] c2, double[] c1, double[] col, 
+                                  double subst, double digraph, double gap, double replace, 
+                                  double max) {
+        int     bc    = PhoneticTable.bit(c);
+        long    lb    = pc < 0 ? 0 : TABLE.digraphs[pc];    // substitutes of text digraph `pc`
+        boolean alive = false;
+        col[0] = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < pattern.length(); i++) {
+            char   a    = pattern.chars[i];
+            int    ba   = pattern.bits[i];
+            long   ma   = pattern.digraphs[i];
+            double r2   = i > 0 ? c2[i - 1] : Double.POSITIVE_INFINITY;   // row i - 2
+            double r1   = i > 0 ? c1[i - 1] : Double.POSITIVE_INFINITY;
+            double cost = -1;
+            double cc   = Double.POSITIVE_INFINITY;
+            if (a == c)
+                cost = 0;
+            else if (bc >= 0 && (pattern.subs[i] >>> bc & 1L) != 0)
+                cost = subst;
+            if (cost >= 0) {
+                cc = Math.min(Math.min(c1[i] + cost, c2[i] + cost + gap), 
+                              Math.min(r1 + cost + gap, r2 + cost + replace));
+            }
+            if (bc >= 0 && (ma >>> bc & 1L) != 0)
+                cc = Math.min(cc, Math.min(r1 + digraph, r2 + digraph + gap));
+            if (ba >= 0 && (lb >>> ba & 1L) != 0)
+                cc = Math.min(cc, Math.min(c2[i] + digraph, r2 + digraph + gap));
+            if ((lb & ma) != 0)
+                cc = Math.min(cc, r2 + digraph);
+            col[i + 1] = cc <= max ? cc : Double.POSITIVE_INFINITY;
+            alive |= cc <= max;
         }
+        return alive;
     }
     
     
-    static int[] initialV(int size) {
-        if (size <= INITIAL_LEN)
-            return INITIAL_V;
-        else {
-            int[] v = new int[size];
-            for (int j = 0; j < size; j++)
-                v[j] = j;
-            return v;
+    private static boolean dead(double[] col) {
+        for (double c : col) {
+            if (c != Double.POSITIVE_INFINITY)
+                return false;
         }
+        return true;
     }
     
     
-    static BitSet initialR(int size) {
-        if (size <= INITIAL_LEN)
-            return INITIAL_R;
-        BitSet r = new BitSet(size);
-        for (int j = 0; j < size; j++)
-            r.set(j);
-        return r;
+    
+    /**
+     * Adds to `res` matches found by scalar engine, which end at 
+     * matrix column `xMin` or farther, shifting them by `offset`
+     */
+    private void findScalar(Config cfg, FoneticText text, FoneticPattern pattern, double maxCost, 
+                            int xMin, int offset, FoneticWorkspace ws, List<ScoredMatch> res) {
+        findScalar(cfg, text, pattern, maxCost, xMin, offset, false, ws, res);
+    }
+    
+    
+    
+    /**
+     * The same as {@link #findScalar(Config, FoneticText, FoneticPattern, double, 
+     * int, int, FoneticWorkspace, List)}, but if `best` is set, takes 
+     * the least cost match for each start, see {@link #collectBest}
+     */
+    private void findScalar(Config cfg, FoneticText text, FoneticPattern pattern, double maxCost, 
+                            int xMin, int offset, boolean best, FoneticWorkspace ws, 
+                            List<ScoredMatch> res) {
+        int len = text.length();
+        prepare(cfg, ws, len);
+        int rows = computeRows(cfg, text, pattern, maxCost, ws);
+        if (rows < 0)
+            return;
+        int k0 = (rows >> 2) - 1, k1 = (rows & 3) - 1;
+        if (best)
+            collectBest(cfg, len, xMin, offset, k0, k1, maxCost, ws, res);
+        else
+            collectMatches(cfg, len, xMin, offset, k0, k1, maxCost, ws, res);
+    }
+    
+    
+    
+    /**
+     * Computes rows of search matrix for all chars of `pattern`. Returns 
+     * slots of the last row `k0` and the last but one `k1` packed as 
+     * `(k0 + 1) << 2 | (k1 + 1)`, or -1 if no match is possible. 
+     * <p>
+     * Besides stopping at two empty rows, stops once the least cost 
+     * at the last rows plus the least cost of the rest of pattern 
+     * (see {@link #restCosts}) exceeds `maxCost`
+     */
+    private int computeRows(Config cfg, FoneticText text, FoneticPattern pattern, double maxCost, 
+                            FoneticWorkspace ws) {
+        double[] rest = restCosts(cfg, text, pattern, ws);
+        
+        // rows are taken from workspace by turns; 
+        // slot -1 means the first row
+        int k1 = 0;                         // slot of row i - 2
+        int k0 = -1;                        // slot of row i - 1
+        double low0 = 0;                    // least cost at row i - 1
+        for (int i = 0; i < pattern.length(); i++) {
+            int k  = k0 != 0 && k1 != 0 ? 0 : (k0 != 1 && k1 != 1 ? 1 : 2);
+            int nw = computeRow(cfg, text, pattern, i, i < 2, k0, k1, k, maxCost, ws);
+            
+            // nothing found on current and previous rows
+            if (nw == 0 && k0 >= 0 && ws.nw[k0] == 0)
+                return -1;
+            
+            // a row may be skipped by digraph or replace, 
+            // so the rest starts at either of the last two rows
+            if (rest[i] > 0) {
+                double low = lowestCost(cfg, k, ws);
+                if (Math.min(low + rest[i + 1], low0 + rest[i]) > maxCost + 1e-9)
+                    return -1;
+                low0 = low;
+            } else
+                low0 = 0;
+            k1 = k0;
+            k0 = k;
+        }
+        return (k0 + 1) << 2 | (k1 + 1);
+    }
+    
+    
+    
+    /**
+     * Fills lower bounds of cost of pattern suffixes `i..m` in `text` at 
+     * `rest[i]`. A pattern char, which neither occurs in text nor has a 
+     * substitute there, costs at least the cheapest of half a digraph 
+     * (shared by two pattern chars), a replace or a gap; having only 
+     * a substitute, it also costs at most a substitution
+     */
+    private double[] restCosts(Config cfg, FoneticText text, FoneticPattern pattern, FoneticWorkspace ws) {
+        int m = pattern.length();
+        if (ws.rest.length <= m)
+            ws.rest = new double[m + 1];
+        double[] rest = ws.rest;
+        long present = 0;
+        char[] tc = text.chars;
+        for (int j = 0, len = text.length(); j < len; j++) {
+            int b = PhoneticTable.bit(tc[j]);
+            if (b >= 0)
+                present |= 1L << b;
+        }
+        double absent = Math.min(Math.min(cfg.cost(cfg.digraphCost) / 2, cfg.cost(cfg.replaceCost)), 
+                                 cfg.cost(cfg.gapCost));
+        rest[m] = 0;
+        for (int i = m - 1; i >= 0; i--) {
+            int b = pattern.bits[i];
+            double c = 0;
+            if (b >= 0 && (present >>> b & 1L) == 0)
+                c = (pattern.subs[i] & present) != 0 ? Math.min(absent, cfg.cost(cfg.substCost)) : absent;
+            rest[i] = rest[i + 1] + c;
+        }
+        return rest;
+    }
+    
+    
+    /**
+     * Least cost set at row of slot `k`, or infinity if none is set
+     */
+    private double lowestCost(Config cfg, int k, FoneticWorkspace ws) {
+        int[] w  = ws.w[k];
+        int   nw = ws.nw[k];
+        if (nw == 0)
+            return Double.POSITIVE_INFINITY;
+        if (cfg.costQuantum > 0) {
+            int[] t = ws.q[k];
+            int low = Integer.MAX_VALUE;
+            for (int z = 0; z < nw; z++)
+                low = Math.min(low, t[w[z]]);
+            return (low - 1) * cfg.costQuantum;
+        }
+        double[] t = ws.t[k];
+        double low = Double.MAX_VALUE;
+        for (int z = 0; z < nw; z++)
+            low = Math.min(low, t[w[z]]);
+        return low - 1;
+    }
+    
+    
+    /**
+     * Sets columns `from..to` of the first row to `v`, 
+     * i. e. forbids (0) or allows (1) matches starting there
+     */
+    private void limitFirstRow(Config cfg, FoneticWorkspace ws, int from, int to, int v) {
+        if (from >= to)
+            return;
+        if (cfg.costQuantum > 0)
+            Arrays.fill(ws.initialQ, from, to, v);
+        else
+            Arrays.fill(ws.initialT, from, to, v);
+    }
+    
+    
+    
+    // ------------ Searcher implementation ------------ //
+    
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Score of a match found by this class is its cost, so `minScore`
+     * is treated as max allowed cost
+     */
+    @Override
+    public int search(CharSequence text, CharSequence pattern, double minScore, 
+                      Consumer<ScoredMatch> matchConsumer) {
+        List<ScoredMatch> ms = findOccurrences(text, pattern, minScore);
+        ms.forEach(matchConsumer);
+        return ms.size();
+    }
+    
+    
+    
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Score of a match found by this class is its cost, so `minScore`
+     * is treated as max allowed cost. Matches of the same dictionary
+     * key are sent sorted by start position, keys are traversed in 
+     * dictionary cursor order. 
+     * <p>
+     * The dictionary is traversed by {@link TrieMap.TrieCursor}, so search
+     * rows for a common prefix are computed once for all keys sharing it, 
+     * and subtrees, which prefix cannot occur in the text, are skipped
+     */
+    @Override
+    public <T> int search(CharSequence text, TrieMap<? extends T> dictionary, 
+                          double minScore, BiConsumer<ScoredMatch, ? super T> matchConsumer) {
+        FoneticWorkspace ws = FoneticWorkspace.acquire();
+        try {
+            Config cfg = config();
+            return search(cfg, ws.text(text, cfg.folding), dictionary, minScore, matchConsumer, ws);
+        } finally {
+            ws.release();
+        }
+    }
+    
+    
+    
+    /**
+     * The same as {@link FoneticSearch#search(CharSequence, TrieMap, double, BiConsumer)}
+     * for text which digraphs are already extracted, using given workspace
+     * 
+     * @deprecated use {@link FoneticSearch#search(FoneticText, TrieMap, double, 
+     * BiConsumer, FoneticWorkspace)} 
+     */
+    @Deprecated
+    public <T> int search(CharSequence text, LetterSet[] textDigraphs, 
+                          TrieMap<? extends T> dictionary, double maxCost, 
+                          BiConsumer<ScoredMatch, ? super T> matchConsumer, 
+                          FoneticWorkspace ws) {
+        return search(ws.text(text, textDigraphs), dictionary, maxCost, matchConsumer, ws);
+    }
+    
+    
+    
+    /**
+     * The same as {@link FoneticSearch#search(CharSequence, TrieMap, double, BiConsumer)}
+     * for prepared text, using given workspace
+     */
+    public <T> int search(FoneticText text, TrieMap<? extends T> dictionary, double maxCost, 
+                          BiConsumer<ScoredMatch, ? super T> matchConsumer, 
+                          FoneticWorkspace ws) {
+        return search(config(), text, dictionary, maxCost, matchConsumer, ws);
+    }
+    
+    
+    private <T> int search(Config cfg, FoneticText text, TrieMap<? extends T> dictionary, double maxCost, 
+                           BiConsumer<ScoredMatch, ? super T> matchConsumer, FoneticWorkspace ws) {
+        int len = text.length();
+        prepare(cfg, ws, len);
+        List<ScoredMatch> res = new ArrayList<>();
+        TrieCursor<? extends T> cur = dictionary.getCursor();
+        int found = 0;
+        if (cur.hasValue()) 
+            found += sendMatches(cfg, len, -1, 0, maxCost, ws, res, cur.getValue(), matchConsumer);
+        
+        // row for prefix of length d + 1 is held in slot d + 1,
+        // slot 0 is always empty
+        FoneticPattern prefix = ws.prefix;
+        int d = -1;
+        boolean deeper = true;
+        for (;;) {
+            if (deeper && cur.hasNext()) {
+                cur.next();
+                d++;
+            } else {
+                // reduce prefix until find 
+                // alternative char for its ending
+                while (!cur.hasMore()) {
+                    if (d <= 0)
+                        return found;
+                    cur.back();
+                    d--;
+                }
+                cur.more();
+            }
+            prefix.set(d, d == 0 ? 0 : prefix.chars[d - 1], cur.currentChar());
+            ws.ensureRows(d + 2);
+            int k0 = d == 0 ? -1 : d;
+            int k1 = d == 0 ? 0 : (d == 1 ? -1 : d - 1);
+            int nw = computeRow(cfg, text, prefix, d, d < 2, k0, k1, d + 1, maxCost, ws);
+            
+            // nothing found on current and previous rows, 
+            // so no continuation of this prefix can be found
+            deeper = nw > 0 || k0 < 0 || ws.nw[k0] > 0;
+            if (deeper && cur.hasValue())
+                found += sendMatches(cfg, len, d + 1, k0, maxCost, ws, res, cur.getValue(), matchConsumer);
+        }
+    }
+    
+    
+    
+    /**
+     * Searches for occurrences of all `patterns` in `text` at once, sending 
+     * them to `matchConsumer` together with index of pattern in the set. 
+     * Matches are the same as {@link FoneticSearch#findOccurrences(CharSequence, 
+     * FoneticPattern, double)} would find for every pattern, and are sent 
+     * grouped by pattern in index order, sorted by start position. 
+     * Returns the number of matches found.
+     * <p>
+     * Text is scanned once, advancing bit-parallel automata of all patterns, 
+     * which can match at current position, together, then exact costs are 
+     * found near reported ends. Short patterns share automata, several 
+     * in a `long`, so a text char takes a step per group of patterns 
+     * rather than per pattern. Patterns which cannot be scanned (shorter 
+     * than 2 or longer than 64 chars, or max cost too high in units 
+     * of the least cost) are searched one by one
+     */
+    public int search(CharSequence text, FoneticPatternSet patterns, double maxCost, 
+                      BiConsumer<ScoredMatch, Integer> matchConsumer) {
+        FoneticWorkspace ws = FoneticWorkspace.acquire();
+        try {
+            Config cfg = config();
+            return search(cfg, ws.text(text, cfg.folding), patterns, maxCost, matchConsumer, ws);
+        } finally {
+            ws.release();
+        }
+    }
+    
+    
+    
+    /**
+     * The same as {@link FoneticSearch#search(CharSequence, FoneticPatternSet, 
+     * double, BiConsumer)} for prepared text, using given workspace
+     */
+    public int search(FoneticText text, FoneticPatternSet patterns, double maxCost, 
+                      BiConsumer<ScoredMatch, Integer> matchConsumer, FoneticWorkspace ws) {
+        return search(config(), text, patterns, maxCost, matchConsumer, ws);
+    }
+    
+    
+    private int search(Config cfg, FoneticText text, FoneticPatternSet patterns, double maxCost, 
+                       BiConsumer<ScoredMatch, Integer> matchConsumer, FoneticWorkspace ws) {
+        int[] units = BitParallelScan.units(cfg.substCost, cfg.digraphCost, cfg.gapCost, cfg.replaceCost, 
+                                            maxCost);
+        MultiPatternScan sc = null;
+        if (units != null && patterns.scanned.length > 0) {
+            sc = ws.multiPatternScan();
+            sc.scan(text, patterns, units);
+        }
+        int found = 0;
+        int f = 0;                        // next scanned pattern
+        for (int i = 0; i < patterns.size(); i++) {
+            FoneticPattern p = patterns.patterns[i];
+            List<ScoredMatch> ms;
+            if (sc != null && f < patterns.scanned.length && patterns.scanned[f] == i) {
+                ms = verify(cfg, text, p, sc.grouped, sc.grouped, sc.offsets[f], sc.offsets[f + 1], 
+                            maxCost, ws);
+                f++;
+            } else
+                ms = findOccurrences(cfg, text, p, maxCost, ws);
+            for (ScoredMatch m : ms)
+                matchConsumer.accept(m, i);
+            found += ms.size();
+        }
+        return found;
+    }
+    
+    
+    
+    /**
+     * Finds up to `k` best matches of `pattern` in `text`, sorted by cost, 
+     * then by start position. For every start, the least cost match is taken
+     * (of those, the one ending farther), so a start gives at most one match.
+     * <p>
+     * Text is searched by chunks, keeping `k` best matches found so far, 
+     * and once there are `k` of them, the worst cost becomes max cost 
+     * for the rest of text, so search prunes more as it proceeds
+     */
+    public List<ScoredMatch> findBest(CharSequence text, CharSequence pattern, int k) {
+        return findBest(text, pattern, k, Double.MAX_VALUE);
+    }
+    
+    
+    
+    /**
+     * The same as {@link FoneticSearch#findBest(CharSequence, CharSequence, int)}
+     * for matches costing at most `maxCost`
+     */
+    public List<ScoredMatch> findBest(CharSequence text, CharSequence pattern, int k, double maxCost) {
+        FoneticWorkspace ws = FoneticWorkspace.acquire();
+        try {
+            Config cfg = config();
+            return findBest(cfg, ws.text(text, cfg.folding), ws.pattern(pattern, cfg.folding), k, maxCost, ws);
+        } finally {
+            ws.release();
+        }
+    }
+    
+    
+    
+    /**
+     * The same as {@link FoneticSearch#findBest(CharSequence, CharSequence, int, double)}
+     * for prepared text and compiled pattern, using given workspace
+     */
+    public List<ScoredMatch> findBest(FoneticText text, FoneticPattern pattern, int k, double maxCost,
+                                      FoneticWorkspace ws) {
+        return findBest(config(), text, pattern, k, maxCost, ws);
+    }
+    
+    
+    private List<ScoredMatch> findBest(Config cfg, FoneticText text, FoneticPattern pattern, int k, 
+                                       double maxCost, FoneticWorkspace ws) {
+        if (k <= 0)
+            return new ArrayList<>();
+        PriorityQueue<ScoredMatch> heap = new PriorityQueue<>(Math.min(k, 1024), WORST_FIRST);
+        List<ScoredMatch> found = new ArrayList<>();
+        int len   = text.length();
+        int reach = 2 * pattern.length() + 4;        // as in `verify()`
+        int chunk = Math.max(BEST_CHUNK, reach);
+        
+        // matches in heap by start modulo its length: a start is found 
+        // again only by the next chunk, so starts, which may be looked 
+        // up, span less than a chunk and its margin and do not collide
+        ScoredMatch[] byStart = new ScoredMatch[2 * (chunk + reach)];
+        double bound = maxCost;
+        for (int from = 0; from < len; from += chunk) {
+            int to = Math.min(len, from + chunk);
+            int wf = Math.max(0, from - reach);
+            found.clear();
+            findScalar(cfg, ws.window.set(text, wf, to), pattern, bound, from - wf + 2, wf, 
+                       true, ws, found);
+            for (ScoredMatch m : found) {
+                // near chunk seams, a start may be found again, 
+                // of equal costs the match ending farther is kept
+                int         z    = m.start % byStart.length;
+                ScoredMatch prev = byStart[z];
+                if (prev != null && prev.start == m.start) {
+                    if (m.score > prev.score || m.score == prev.score && m.end <= prev.end)
+                        continue;
+                    heap.remove(prev);
+                } else if (heap.size() == k) {
+                    if (WORST_FIRST.compare(m, heap.peek()) <= 0)
+                        continue;
+                    ScoredMatch worst = heap.poll();
+                    if (byStart[worst.start % byStart.length] == worst)
+                        byStart[worst.start % byStart.length] = null;
+                }
+                heap.add(m);
+                byStart[z] = m;
+            }
+            if (heap.size() == k)
+                bound = heap.peek().score;
+        }
+        List<ScoredMatch> res = new ArrayList<>(heap);
+        res.sort(WORST_FIRST.reversed());
+        return res;
+    }
+    
+    
+    
+    /**
+     * Returns cost of the best match of `pattern` covering
+     * entire `word`, or {@link Double#POSITIVE_INFINITY} if
+     * `pattern` cannot cover it
+     */
+    @Override
+    public double getScore(CharSequence word, CharSequence pattern) {
+        return getScore(word, pattern, Double.MAX_VALUE);
+    }
+    
+    
+    
+    /**
+     * The same as {@link FoneticSearch#getScore(CharSequence, CharSequence)},
+     * but returns {@link Double#POSITIVE_INFINITY} as soon as it is clear
+     * that the cost exceeds `maxCost`, which is the faster the lower it is
+     */
+    public double getScore(CharSequence word, CharSequence pattern, double maxCost) {
+        FoneticWorkspace ws = FoneticWorkspace.acquire();
+        try {
+            Config cfg = config();
+            return getScore(cfg, ws.text(word, cfg.folding), ws.pattern(pattern, cfg.folding), maxCost, ws);
+        } finally {
+            ws.release();
+        }
+    }
+    
+    
+    
+    /**
+     * The same as {@link FoneticSearch#getScore(CharSequence, CharSequence, double)}
+     * for prepared word and compiled pattern, using given workspace, so nothing
+     * is allocated: suitable for comparing many pairs of short words, e. g.
+     * names in record linkage. Only paths from the first char of `word` 
+     * are computed, and only their costs at its last char are taken
+     */
+    public double getScore(FoneticText word, FoneticPattern pattern, double maxCost, FoneticWorkspace ws) {
+        return getScore(config(), word, pattern, maxCost, ws);
+    }
+    
+    
+    private double getScore(Config cfg, FoneticText word, FoneticPattern pattern, double maxCost, 
+                            FoneticWorkspace ws) {
+        int n = word.length();
+        if (n == 0 || pattern.length() == 0)
+            return Double.POSITIVE_INFINITY;
+        prepare(cfg, ws, n);
+        limitFirstRow(cfg, ws, 2, n + 2, 0);
+        try {
+            int rows = computeRows(cfg, word, pattern, maxCost, ws);
+            if (rows < 0)
+                return Double.POSITIVE_INFINITY;
+            int k0 = (rows >> 2) - 1, k1 = (rows & 3) - 1;
+            
+            // the last column, reached at the last row 
+            // or at the last but one, skipping the last char
+            double c0, c1;
+            if (cfg.costQuantum > 0) {
+                int q0 = (k0 < 0 ? ws.initialQ : ws.q[k0])[n + 1];
+                int q1 = (k1 < 0 ? ws.initialQ : ws.q[k1])[n + 1];
+                c0 = q0 == 0 ? Double.POSITIVE_INFINITY : (q0 - 1) * cfg.costQuantum;
+                c1 = q1 == 0 || q1 - 1 + cfg.units(cfg.gapCost) > cfg.maxUnits(maxCost) 
+                   ? Double.POSITIVE_INFINITY : (q1 - 1 + cfg.units(cfg.gapCost)) * cfg.costQuantum;
+            } else {
+                double t0 = (k0 < 0 ? ws.initialT : ws.t[k0])[n + 1];
+                double t1 = (k1 < 0 ? ws.initialT : ws.t[k1])[n + 1];
+                c0 = t0 == 0 ? Double.POSITIVE_INFINITY : t0 - 1;
+                c1 = t1 == 0 || t1 - 1 + cfg.gapCost > maxCost 
+                   ? Double.POSITIVE_INFINITY : t1 - 1 + cfg.gapCost;
+            }
+            return Math.min(c0, c1);
+        } finally {
+            limitFirstRow(cfg, ws, 2, n + 2, 1);
+        }
+    }
+    
+    
+    
+    /**
+     * Scores `pattern` against every word of `words` by {@link 
+     * FoneticSearch#getScore(CharSequence, CharSequence, double)}, writing 
+     * score of `words[j]` to `scores[j]`. The pattern is compiled once, 
+     * and nothing is allocated per word
+     */
+    public void getScores(CharSequence pattern, CharSequence[] words, double maxCost, double[] scores) {
+        getScores(words, new CharSequence[] { pattern }, maxCost, scores);
+    }
+    
+    
+    
+    /**
+     * The same as {@link FoneticSearch#getScores(CharSequence, CharSequence[], 
+     * double, double[])}, writing scores as floats
+     */
+    public void getScores(CharSequence pattern, CharSequence[] words, double maxCost, float[] scores) {
+        getScores(words, new CharSequence[] { pattern }, maxCost, scores);
+    }
+    
+    
+    
+    /**
+     * Scores every pattern of `patterns` against every word of `words` by 
+     * {@link FoneticSearch#getScore(CharSequence, CharSequence, double)}, 
+     * writing score of `words[i]` and `patterns[j]` to `scores[i * M + j]`, 
+     * where `M` is the number of patterns. Patterns are compiled and words 
+     * are prepared once, and nothing is allocated per pair
+     */
+    public void getScores(CharSequence[] words, CharSequence[] patterns, double maxCost, double[] scores) {
+        checkScores(words, patterns, scores.length);
+        Config cfg = config();
+        scoreRows(cfg, words, compileAll(cfg, patterns), maxCost, 0, words.length, (k, c) -> scores[k] = c);
+    }
+    
+    
+    
+    /**
+     * The same as {@link FoneticSearch#getScores(CharSequence[], CharSequence[], 
+     * double, double[])}, writing scores as floats
+     */
+    public void getScores(CharSequence[] words, CharSequence[] patterns, double maxCost, float[] scores) {
+        checkScores(words, patterns, scores.length);
+        Config cfg = config();
+        scoreRows(cfg, words, compileAll(cfg, patterns), maxCost, 0, words.length, 
+                  (k, c) -> scores[k] = (float) c);
+    }
+    
+    
+    
+    /**
+     * The same as {@link FoneticSearch#getScores(CharSequence[], CharSequence[], 
+     * double, double[])}, but words are split into tasks of about
+     * {@value #BATCH_PAIRS} pairs, which run on `executor`, each with 
+     * a thread-local workspace. Returns when all scores are written
+     */
+    public void getScores(CharSequence[] words, CharSequence[] patterns, double maxCost, double[] scores,
+                          Executor executor) {
+        checkScores(words, patterns, scores.length);
+        Config cfg = config();
+        scoreRows(cfg, words, compileAll(cfg, patterns), maxCost, (k, c) -> scores[k] = c, executor);
+    }
+    
+    
+    
+    /**
+     * The same as {@link FoneticSearch#getScores(CharSequence[], CharSequence[], 
+     * double, double[], Executor)}, writing scores as floats
+     */
+    public void getScores(CharSequence[] words, CharSequence[] patterns, double maxCost, float[] scores,
+                          Executor executor) {
+        checkScores(words, patterns, scores.length);
+        Config cfg = config();
+        scoreRows(cfg, words, compileAll(cfg, patterns), maxCost, (k, c) -> scores[k] = (float) c, executor);
+    }
+    
+    
+    
+    // ------------------ private stuff ----------------- //
+    
+    /**
+     * Configuration for a search, taken once at its start 
+     * and passed down to all stages
+     */
+    Config config() {
+        Config c = fixed;
+        return c != null ? c : config;
+    }
+    
+    
+    /**
+     * Replaces configuration by a copy changed by `setter`, 
+     * so searches already running keep the one they took
+     */
+    private synchronized FoneticSearch update(Consumer<Config.Builder> setter) {
+        if (fixed != null)
+            throw new UnsupportedOperationException("Instance created from Config is immutable");
+        Config.Builder b = config.toBuilder();
+        setter.accept(b);
+        config = new Config(b);
+        return this;
+    }
+    
+    
+    @FunctionalInterface
+    interface ScoreSink {
+        void put(int index, double score);
+    }
+    
+    
+    private static void checkScores(CharSequence[] words, CharSequence[] patterns, int length) {
+        if ((long) words.length * patterns.length > length)
+            throw new IllegalArgumentException("Scores array is too short: " + length 
+                                               + " for " + words.length + " x " + patterns.length);
+    }
+    
+    
+    private static FoneticPattern[] compileAll(Config cfg, CharSequence[] patterns) {
+        FoneticPattern[] ps = new FoneticPattern[patterns.length];
+        for (int j = 0; j < ps.length; j++)
+            ps[j] = compile(patterns[j], cfg.folding);
+        return ps;
+    }
+    
+    
+    /**
+     * Scores words `from..to` against all `patterns`
+     */
+    private void scoreRows(Config cfg, CharSequence[] words, FoneticPattern[] patterns, double maxCost, 
+                           int from, int to, ScoreSink sink) {
+        FoneticWorkspace ws = FoneticWorkspace.acquire();
+        try {
+            int m = patterns.length;
+            for (int i = from; i < to; i++) {
+                FoneticText word = ws.text(words[i], cfg.folding);
+                for (int j = 0; j < m; j++)
+                    sink.put(i * m + j, getScore(cfg, word, patterns[j], maxCost, ws));
+            }
+        } finally {
+            ws.release();
+        }
+    }
+    
+    
+    private void scoreRows(Config cfg, CharSequence[] words, FoneticPattern[] patterns, double maxCost, 
+                           ScoreSink sink, Executor executor) {
+        int n    = words.length;
+        int step = Math.max(1, BATCH_PAIRS / Math.max(1, patterns.length));
+        List<CompletableFuture<Void>> tasks = new ArrayList<>();
+        for (int from = 0; from < n; from += step) {
+            int f = from, t = Math.min(n, from + step);
+            tasks.add(CompletableFuture.runAsync(() -> scoreRows(cfg, words, patterns, maxCost, f, t, sink), 
+                                                 executor));
+        }
+        CompletableFuture.allOf(tasks.toArray(new CompletableFuture<?>[tasks.size()])).join();
+    }
+    
+    
+    
+    
+    private static void prepare(Config cfg, FoneticWorkspace ws, int len) {
+        ws.ensureCapacity(len);
+        if (cfg.costQuantum > 0)
+            ws.useFixedCosts();
+        else
+            ws.useDoubleCosts();
+        ws.clearRow(0);
+    }
+    
+    
+    
+    /**
+     * Computes row of the search matrix for char `i` of `pattern` 
+     * at workspace slot `k`, using rows at slots `k0` (previous) 
+     * and `k1` (the one before), where slot -1 is the first row. 
+     * Returns the number of positions set at computed row
+     */
+    int computeRow(Config cfg, FoneticText text, FoneticPattern pattern, int i,
+                   boolean visitAll, int k0, int k1, int k, double maxCost, 
+                   FoneticWorkspace ws) {
+        if (cfg.costQuantum > 0)
+            return computeFixedRow(cfg, text, pattern, i, visitAll, k0, k1, k, maxCost, ws);
+        double[] t1 = k1 < 0 ? ws.initialT : ws.t[k1];     // submatch costs
+        double[] t0 = k0 < 0 ? ws.initialT : ws.t[k0];
+        int[]    s1 = k1 < 0 ? ws.initialS : ws.s[k1];     // starting positions
+        int[]    s0 = k0 < 0 ? ws.initialS : ws.s[k0];
+        ws.clearRow(k);
+        double[] t  = ws.t[k];
+        int[]    s  = ws.s[k];
+        int[]    w  = ws.w[k];                             // positions set at this row
+        int      nw = 0;
+        int[]    v  = visitAll && !cfg.denseRows ? ws.all : ws.v;   // positions to visit
+        int      nv = visits(cfg, text, pattern, i, visitAll, k0, k1, ws);
+        
+        char   a  = pattern.chars[i];
+        int    ba = pattern.bits[i];
+        long   sa = pattern.subs[i];              // substitutes of `a`
+        long   ma = pattern.digraphs[i];          // substitutes of digraph ending at `a`
+        char[] tc = text.chars;
+        long[] td = text.digraphs;                // substitutes of digraphs ending in text
+        
+        for (int z = 0; z < nv; z++) {
+            int    j    = v[z];
+            int    ss   = -1;
+            double cost = -1.0;        
+            char   b    = tc[j];
+            int    bb   = PhoneticTable.bit(b);
+            double cc   = Double.MAX_VALUE;
+            
+            if (a == b)
+                cost = 0;
+            else if (bb >= 0 && (sa >>> bb & 1L) != 0)
+                cost = cfg.substCost;
+                            
+            // find best match/substitution/gap/replace
+            if (cost >= 0) {
+                if (t0[j + 1] > 0) {
+                    ss = s0[j + 1];
+                    cc = t0[j + 1] + cost;
+                }
+                if (t0[j] > 0 && t0[j] + cost + cfg.gapCost < cc) {
+                    ss = s0[j];
+                    cc = t0[j] + cost + cfg.gapCost;
+                }
+                if (t1[j + 1] > 0 && t1[j + 1] + cost + cfg.gapCost < cc) {
+                    ss = s1[j + 1];
+                    cc = t1[j + 1] + cost + cfg.gapCost;
+                }
+                if (t1[j] > 0 && t1[j] + cost + cfg.replaceCost < cc) {
+                    ss = s1[j];
+                    cc = t1[j] + cost + cfg.replaceCost;
+                }
+            }
+            // try digraphs
+            long lb = td[j];
+            if (bb >= 0 && (ma >>> bb & 1L) != 0) {
+                if (t1[j + 1] > 0 && t1[j + 1] + cfg.digraphCost < cc) {
+                    cc = t1[j + 1] + cfg.digraphCost;
+                    ss = s1[j + 1];
+                }
+                if (t1[j] > 0 && t1[j] + cfg.digraphCost + cfg.gapCost < cc) {
+                    cc = t1[j] + cfg.digraphCost + cfg.gapCost;
+                    ss = s1[j];
+                }
+            }
+            if (ba >= 0 && (lb >>> ba & 1L) != 0) {
+                if (t0[j] > 0 && t0[j] + cfg.digraphCost < cc) {
+                    cc = t0[j] + cfg.digraphCost;
+                    ss = s0[j];
+                }
+                if (t1[j] > 0 && t1[j] + cfg.digraphCost + cfg.gapCost < cc) {
+                    cc = t1[j] + cfg.digraphCost + cfg.gapCost;
+                    ss = s1[j];
+                }
+            }                
+            if ((lb & ma) != 0 && t1[j] > 0 && t1[j] + cfg.digraphCost < cc) {
+                cc = t1[j] + cfg.digraphCost;
+                ss = s1[j];
+            }
+            
+            // set cost and start position for i, j-substring
+            if (ss >= 0 && cc - 1.0 <= maxCost) {
+                t[j + 2] = cc;
+                s[j + 2] = ss;
+                w[nw++]  = j + 2;
+                ws.nw[k] = nw;
+            }
+        }
+        return nw;
+    }
+    
+    
+    /**
+     * The same as {@link #computeRow}, but on fixed-point costs
+     * rounded to multiples of {@link Config#costQuantum}
+     */
+    int computeFixedRow(Config cfg, FoneticText text, FoneticPattern pattern, int i,
+                        boolean visitAll, int k0, int k1, int k, double maxCost, 
+                        FoneticWorkspace ws) {
+        int   subst   = cfg.units(cfg.substCost);
+        int   digraph = cfg.units(cfg.digraphCost);
+        int   gap     = cfg.units(cfg.gapCost);
+        int   replace = cfg.units(cfg.replaceCost);
+        int   max     = cfg.maxUnits(maxCost);
+        int[] t1 = k1 < 0 ? ws.initialQ : ws.q[k1];        // submatch costs
+        int[] t0 = k0 < 0 ? ws.initialQ : ws.q[k0];
+        int[] s1 = k1 < 0 ? ws.initialS : ws.s[k1];        // starting positions
+        int[] s0 = k0 < 0 ? ws.initialS : ws.s[k0];
+        ws.clearRow(k);
+        int[] t  = ws.q[k];
+        int[] s  = ws.s[k];
+        int[] w  = ws.w[k];                                // positions set at this row
+        int   nw = 0;
+        int[] v  = visitAll && !cfg.denseRows ? ws.all : ws.v;      // positions to visit
+        int   nv = visits(cfg, text, pattern, i, visitAll, k0, k1, ws);
+        
+        char   a  = pattern.chars[i];
+        int    ba = pattern.bits[i];
+        long   sa = pattern.subs[i];
+        long   ma = pattern.digraphs[i];
+        char[] tc = text.chars;
+        long[] td = text.digraphs;
+        
+        for (int z = 0; z < nv; z++) {
+            int  j    = v[z];
+            int  ss   = -1;
+            int  cost = -1;        
+            char b    = tc[j];
+            int  bb   = PhoneticTable.bit(b);
+            int  cc   = Integer.MAX_VALUE;
+            
+            if (a == b)
+                cost = 0;
+            else if (bb >= 0 && (sa >>> bb & 1L) != 0)
+                cost = subst;
+                            
+            if (cost >= 0) {
+                if (t0[j + 1] > 0) {
+                    ss = s0[j + 1];
+                    cc = t0[j + 1] + cost;
+                }
+                if (t0[j] > 0 && t0[j] + cost + gap < cc) {
+                    ss = s0[j];
+                    cc = t0[j] + cost + gap;
+                }
+                if (t1[j + 1] > 0 && t1[j + 1] + cost + gap < cc) {
+                    ss = s1[j + 1];
+                    cc = t1[j + 1] + cost + gap;
+                }
+                if (t1[j] > 0 && t1[j] + cost + replace < cc) {
+                    ss = s1[j];
+                    cc = t1[j] + cost + replace;
+                }
+            }
+            long lb = td[j];
+            if (bb >= 0 && (ma >>> bb & 1L) != 0) {
+                if (t1[j + 1] > 0 && t1[j + 1] + digraph < cc) {
+                    cc = t1[j + 1] + digraph;
+                    ss = s1[j + 1];
+                }
+                if (t1[j] > 0 && t1[j] + digraph + gap < cc) {
+                    cc = t1[j] + digraph + gap;
+                    ss = s1[j];
+                }
+            }
+            if (ba >= 0 && (lb >>> ba & 1L) != 0) {
+                if (t0[j] > 0 && t0[j] + digraph < cc) {
+                    cc = t0[j] + digraph;
+                    ss = s0[j];
+                }
+                if (t1[j] > 0 && t1[j] + digraph + gap < cc) {
+                    cc = t1[j] + digraph + gap;
+                    ss = s1[j];
+                }
+            }                
+            if ((lb & ma) != 0 && t1[j] > 0 && t1[j] + digraph < cc) {
+                cc = t1[j] + digraph;
+                ss = s1[j];
+            }
+            if (ss >= 0 && cc - 1 <= max) {
+                t[j + 2] = cc;
+                s[j + 2] = ss;
+                w[nw++]  = j + 2;
+                ws.nw[k] = nw;
+            }
+        }
+        return nw;
+    }
+    
+    
+    
+    /**
+     * Fills list of positions to visit at row for char `i` of `pattern` 
+     * and returns their number: all positions at the first two rows, 
+     * then neighbours of ones set at two previous rows (slots `k0` and `k1`).
+     * Dense rows are listed by {@link #candidates}
+     */
+    int visits(Config cfg, FoneticText text, FoneticPattern pattern, int i, boolean visitAll, 
+               int k0, int k1, FoneticWorkspace ws) {
+        int len = text.length();
+        if (cfg.denseRows && (visitAll || (ws.nw[k0] + ws.nw[k1]) * DENSE_ROW > len))
+            return candidates(text, pattern, i, ws);
+        if (visitAll)
+            return len;
+        int[] marks = ws.marks;
+        int   st    = ws.nextStamp();
+        int[] v     = ws.v;
+        int   nv    = 0;
+        for (int q = 0; q < 2; q++) {
+            int   kq = q == 0 ? k0 : k1;
+            int[] wq = ws.w[kq];
+            for (int z = ws.nw[kq] - 1; z >= 0; z--) {
+                for (int p = wq[z] - 1; p <= wq[z] && p < len; p++) {
+                    if (marks[p] != st) {
+                        marks[p] = st;
+                        v[nv++] = p;
+                    }
+                }
+            }
+        }
+        return nv;
+    }
+    
+    
+    
+    /**
+     * Lists positions of text where char `i` of `pattern` may match, 
+     * i. e. where text char is the same or its substitute, or is
+     * a substitute of pattern digraph ending at `i`, or where text digraph 
+     * ending at the position can be substituted by pattern char or digraph. 
+     * No cell of a row can be set at other positions. 
+     * <p>
+     * The loop has no branches: each position is written to the list, 
+     * and list length grows by 0 or 1, so it runs at the same rate 
+     * however matching chars are scattered, and costs less than 
+     * the recurrence, which mispredicts on them
+     */
+    int candidates(FoneticText text, FoneticPattern pattern, int i, FoneticWorkspace ws) {
+        int    a  = pattern.chars[i];
+        int    ba = pattern.bits[i];
+        long   cm = pattern.subs[i] | pattern.digraphs[i];               // text chars to match
+        long   dm = pattern.digraphs[i] | (ba < 0 ? 0 : 1L << ba);      // text digraphs to match
+        char[] tc = text.chars;
+        long[] td = text.digraphs;
+        long[] masks = PhoneticTable.MASKS;
+        int[]  v  = ws.v;
+        int    nv = 0;
+        for (int j = 0, len = text.length(); j < len; j++) {
+            int  b = tc[j];
+            long m = masks[b & 0x7F] & (b - 128) >> 31 & cm | td[j] & dm;   // no mask for b >= 128
+            v[nv] = j;
+            nv += (int) ((m | -m) >>> 63) | ((b ^ a) - 1) >>> 31;
+        }
+        return nv;
+    }
+    
+    
+    
+    /**
+     * Adds to `res` matches ending at the last (slot `k0`) 
+     * and the last but one (slot `k1`) rows at column `xMin` 
+     * or farther, sorted by start and shifted by `offset`
+     */
+    void collectMatches(Config cfg, int len, int xMin, int offset, int k0, int k1, double maxCost, 
+                        FoneticWorkspace ws, List<ScoredMatch> res) {
+        if (cfg.costQuantum > 0) {
+            collectFixedMatches(cfg, len, xMin, offset, k0, k1, maxCost, ws, res);
+            return;
+        }
+        double[] t1 = k1 < 0 ? ws.initialT : ws.t[k1];
+        double[] t0 = k0 < 0 ? ws.initialT : ws.t[k0];
+        int[]    s1 = k1 < 0 ? ws.initialS : ws.s[k1];
+        int[]    s0 = k0 < 0 ? ws.initialS : ws.s[k0];
+        int[]    marks = ws.marks;
+        int      st    = ws.nextStamp();   // marks starts already taken
+        int      from  = res.size();
+        for (int j = len + 1; j >= xMin; j--) {
+            if (t0[j] != 0 && marks[s0[j]] != st) {
+                marks[s0[j]] = st;
+                res.add(new ScoredMatch(s0[j] + offset, j - 1 + offset, t0[j] - 1));
+            }
+            if (t1[j] != 0 && marks[s1[j]] != st) {
+                if (t1[j] - 1 + cfg.gapCost <= maxCost) {
+                    marks[s1[j]] = st;
+                    res.add(new ScoredMatch(s1[j] + offset, j - 1 + offset, t1[j] - 1 + cfg.gapCost));
+                }
+            }
+        }
+        res.subList(from, res.size()).sort((m1, m2) -> m1.start - m2.start);
+    }
+    
+    
+    
+    void collectFixedMatches(Config cfg, int len, int xMin, int offset, int k0, int k1, double maxCost, 
+                             FoneticWorkspace ws, List<ScoredMatch> res) {
+        int   gap   = cfg.units(cfg.gapCost);
+        int   max   = cfg.maxUnits(maxCost);
+        int[] t1    = k1 < 0 ? ws.initialQ : ws.q[k1];
+        int[] t0    = k0 < 0 ? ws.initialQ : ws.q[k0];
+        int[] s1    = k1 < 0 ? ws.initialS : ws.s[k1];
+        int[] s0    = k0 < 0 ? ws.initialS : ws.s[k0];
+        int[] marks = ws.marks;
+        int   st    = ws.nextStamp();
+        int   from  = res.size();
+        for (int j = len + 1; j >= xMin; j--) {
+            if (t0[j] != 0 && marks[s0[j]] != st) {
+                marks[s0[j]] = st;
+                res.add(new ScoredMatch(s0[j] + offset, j - 1 + offset, (t0[j] - 1) * cfg.costQuantum));
+            }
+            if (t1[j] != 0 && marks[s1[j]] != st) {
+                if (t1[j] - 1 + gap <= max) {
+                    marks[s1[j]] = st;
+                    res.add(new ScoredMatch(s1[j] + offset, j - 1 + offset, 
+                                            (t1[j] - 1 + gap) * cfg.costQuantum));
+                }
+            }
+        }
+        res.subList(from, res.size()).sort((m1, m2) -> m1.start - m2.start);
+    }
+    
+    
+    
+    /**
+     * Adds to `res` matches ending at the last (slot `k0`) and the last 
+     * but one (slot `k1`) rows at column `xMin` or farther, shifted 
+     * by `offset`. Unlike {@link #collectMatches}, which takes the match 
+     * ending farthest for each start, takes the least cost one, so the 
+     * result does not depend on `maxCost` used to compute rows, as long 
+     * as it is not exceeded
+     */
+    void collectBest(Config cfg, int len, int xMin, int offset, int k0, int k1, double maxCost, 
+                     FoneticWorkspace ws, List<ScoredMatch> res) {
+        boolean fixed = cfg.costQuantum > 0;
+        int      gap  = fixed ? cfg.units(cfg.gapCost) : 0;
+        int      max  = fixed ? cfg.maxUnits(maxCost) : 0;
+        double[] t1   = fixed ? null : k1 < 0 ? ws.initialT : ws.t[k1];
+        double[] t0   = fixed ? null : k0 < 0 ? ws.initialT : ws.t[k0];
+        int[]    q1   = fixed ? k1 < 0 ? ws.initialQ : ws.q[k1] : null;
+        int[]    q0   = fixed ? k0 < 0 ? ws.initialQ : ws.q[k0] : null;
+        int[]    s1   = k1 < 0 ? ws.initialS : ws.s[k1];
+        int[]    s0   = k0 < 0 ? ws.initialS : ws.s[k0];
+        int[]    marks = ws.marks;
+        int[]    at    = ws.v;              // index of match in `res` by start
+        int      st    = ws.nextStamp();
+        for (int j = len + 1; j >= xMin; j--) {
+            if (fixed ? q0[j] != 0 : t0[j] != 0) {
+                double c = fixed ? (q0[j] - 1) * cfg.costQuantum : t0[j] - 1;
+                offerBest(s0[j], j - 1, c, offset, marks, st, at, res);
+            }
+            if (fixed ? q1[j] != 0 && q1[j] - 1 + gap <= max 
+                      : t1[j] != 0 && t1[j] - 1 + cfg.gapCost <= maxCost) {
+                double c = fixed ? (q1[j] - 1 + gap) * cfg.costQuantum : t1[j] - 1 + cfg.gapCost;
+                offerBest(s1[j], j - 1, c, offset, marks, st, at, res);
+            }
+        }
+    }
+    
+    
+    /**
+     * Adds match, or replaces one of the same start if it costs 
+     * more. Matches come by descending end, so of equal costs 
+     * the one ending farther is kept
+     */
+    private static void offerBest(int start, int end, double cost, int offset, int[] marks, 
+                                  int st, int[] at, List<ScoredMatch> res) {
+        if (marks[start] != st) {
+            marks[start] = st;
+            at[start] = res.size();
+            res.add(new ScoredMatch(start + offset, end + offset, cost));
+        } else if (cost < res.get(at[start]).score)
+            res.set(at[start], new ScoredMatch(start + offset, end + offset, cost));
+    }
+    
+    
+    
+    <T> int sendMatches(Config cfg, int len, int k0, int k1, double maxCost, FoneticWorkspace ws, 
+                        List<ScoredMatch> buffer, T value, 
+                        BiConsumer<ScoredMatch, ? super T> matchConsumer) {
+        buffer.clear();
+        collectMatches(cfg, len, 1, 0, k0, k1, maxCost, ws, buffer);
+        for (ScoredMatch m : buffer)
+            matchConsumer.accept(m, value);
+        return buffer.size();
+    }
+    
+    
+    
+    
+    /**
+     * Counters of text positions, which were filtered out by q-gram 
+     * filter or bit-parallel scan, so search itself did not visit them. 
+     * Thread-safe
+     */
+    public static final class FilterStats {
+        
+        final LongAdder positions = new LongAdder();
+        final LongAdder skipped   = new LongAdder();
+        
+        
+        /**
+         * Total length of texts passed through filters
+         */
+        public long positions() {
+            return positions.sum();
+        }
+        
+        
+        /**
+         * Positions not visited by search
+         */
+        public long skipped() {
+            return skipped.sum();
+        }
+        
+        
+        public double skippedFraction() {
+            long p = positions();
+            return p == 0 ? 0 : (double) skipped() / p;
+        }
+        
+        
+        public void reset() {
+            positions.reset();
+            skipped.reset();
+        }
+        
+        
+        @Override
+        public String toString() {
+            return String.format("%s of %s positions skipped (%.1f%%)", 
+                                 skipped(), positions(), 100 * skippedFraction());
+        }
+    }
+    
+    
+    
+    /**
+     * Costs and engine choice for {@link FoneticSearch}, built by 
+     * {@link #builder()}. See setters of `FoneticSearch` for meaning 
+     * of parameters and defaults.
+     * 
+     * @Immutable
+     */
+    public static final class Config {
+        
+        /**
+         * Default configuration
+         */
+        public static final Config DEFAULT = builder().build();
+        
+        final double  substCost;
+        final double  digraphCost;
+        final double  gapCost;
+        final double  replaceCost;
+        final int     bitParallelLength;
+        final double  costQuantum;
+        final boolean qGramFilter;
+        final boolean folding;
+        final boolean denseRows;
+        final boolean suffixArray;
+        final boolean pigeonhole;
+        
+        
+        private Config(Builder b) {
+            this.substCost         = b.substCost;
+            this.digraphCost       = b.digraphCost;
+            this.gapCost           = b.gapCost;
+            this.replaceCost       = b.replaceCost;
+            this.bitParallelLength = b.bitParallelLength;
+            this.costQuantum       = b.costQuantum;
+            this.qGramFilter       = b.qGramFilter;
+            this.folding           = b.folding;
+            this.denseRows         = b.denseRows;
+            this.suffixArray       = b.suffixArray;
+            this.pigeonhole        = b.pigeonhole;
+        }
+        
+        
+        public static Builder builder() {
+            return new Builder();
+        }
+        
+        
+        /**
+         * Builder initialized by this configuration
+         */
+        public Builder toBuilder() {
+            return new Builder(this);
+        }
+        
+        
+        public double  getSubstitutionCost() { return substCost; }
+        public double  getDigraphCost()      { return digraphCost; }
+        public double  getGapCost()          { return gapCost; }
+        public double  getReplaceCost()      { return replaceCost; }
+        public int     getBitParallelLength(){ return bitParallelLength; }
+        public double  getCostQuantum()      { return costQuantum; }
+        public boolean isQGramFilter()       { return qGramFilter; }
+        public boolean isFolding()           { return folding; }
+        public boolean isDenseRows()         { return denseRows; }
+        public boolean isSuffixArray()       { return suffixArray; }
+        public boolean isPigeonholeFilter()  { return pigeonhole; }
+        
+        
+        /**
+         * `cost` in units of quantum
+         */
+        int units(double cost) {
+            return (int) Math.round(cost / costQuantum);
+        }
+        
+        
+        int maxUnits(double maxCost) {
+            return (int) Math.min(Math.floor(maxCost / costQuantum + 1e-9), Integer.MAX_VALUE >> 2);
+        }
+        
+        
+        /**
+         * `cost` as computed by search, i. e. rounded to quantum if any
+         */
+        double cost(double cost) {
+            return costQuantum > 0 ? units(cost) * costQuantum : cost;
+        }
+        
+        
+        @Override
+        public String toString() {
+            return String.format("Config(subst=%s, digraph=%s, gap=%s, replace=%s, "
+                                 + "bitParallel=%s, quantum=%s, qGramFilter=%s, folding=%s, "
+                                 + "denseRows=%s, suffixArray=%s, pigeonhole=%s)", 
+                                 substCost, digraphCost, gapCost, replaceCost, bitParallelLength, 
+                                 costQuantum, qGramFilter, folding, denseRows, suffixArray, pigeonhole);
+        }
+        
+        
+        
+        /**
+         * Not thread-safe
+         */
+        public static final class Builder {
+            
+            double  substCost         = 0.5;
+            double  digraphCost       = 0.5;
+            double  gapCost           = 1.0;
+            double  replaceCost       = 2.0;
+            int     bitParallelLength = 0;
+            double  costQuantum       = 0;
+            boolean qGramFilter       = false;
+            boolean folding           = false;
+            boolean denseRows         = true;
+            boolean suffixArray       = false;
+            boolean pigeonhole        = false;
+            
+            
+            private Builder() { }
+            
+            
+            private Builder(Config c) {
+                substCost         = c.substCost;
+                digraphCost       = c.digraphCost;
+                gapCost           = c.gapCost;
+                replaceCost       = c.replaceCost;
+                bitParallelLength = c.bitParallelLength;
+                costQuantum       = c.costQuantum;
+                qGramFilter       = c.qGramFilter;
+                folding           = c.folding;
+                denseRows         = c.denseRows;
+                suffixArray       = c.suffixArray;
+                pigeonhole        = c.pigeonhole;
+            }
+            
+            
+            public Builder setSubstitutionCost(double cost) {
+                this.substCost = cost;
+                return this;
+            }
+            
+            
+            public Builder setDigraphCost(double cost) {
+                this.digraphCost = cost;
+                return this;
+            }
+            
+            
+            public Builder setGapCost(double cost) {
+                this.gapCost = cost;
+                return this;
+            }
+            
+            
+            public Builder setReplaceCost(double cost) {
+                this.replaceCost = cost;
+                return this;
+            }
+            
+            
+            /**
+             * See {@link FoneticSearch#setBitParallelLength(int)}
+             */
+            public Builder setBitParallelLength(int maxLength) {
+                this.bitParallelLength = Math.min(maxLength, BitParallelScan.MAX_LENGTH);
+                return this;
+            }
+            
+            
+            /**
+             * See {@link FoneticSearch#setCostQuantum(double)}
+             */
+            public Builder setCostQuantum(double quantum) {
+                this.costQuantum = quantum;
+                return this;
+            }
+            
+            
+            /**
+             * See {@link FoneticSearch#setQGramFilter(boolean)}
+             */
+            public Builder setQGramFilter(boolean enabled) {
+                this.qGramFilter = enabled;
+                return this;
+            }
+            
+            
+            /**
+             * See {@link FoneticSearch#setFolding(boolean)}
+             */
+            public Builder setFolding(boolean enabled) {
+                this.folding = enabled;
+                return this;
+            }
+            
+            
+            /**
+             * See {@link FoneticSearch#setDenseRows(boolean)}
+             */
+            public Builder setDenseRows(boolean enabled) {
+                this.denseRows = enabled;
+                return this;
+            }
+            
+            
+            /**
+             * See {@link FoneticSearch#setSuffixArray(boolean)}
+             */
+            public Builder setSuffixArray(boolean enabled) {
+                this.suffixArray = enabled;
+                return this;
+            }
+            
+            
+            /**
+             * See {@link FoneticSearch#setPigeonholeFilter(boolean)}
+             */
+            public Builder setPigeonholeFilter(boolean enabled) {
+                this.pigeonhole = enabled;
+                return this;
+            }
+            
+            
+            /**
+             * @throws IllegalArgumentException if any cost or quantum is negative
+             */
+            public Config build() {
+                if (substCost < 0 || digraphCost < 0 || gapCost < 0 || replaceCost < 0 || costQuantum < 0)
+                    throw new IllegalArgumentException("Costs must not be negative");
+                return new Config(this);
+            }
+        }
     }
     
 }
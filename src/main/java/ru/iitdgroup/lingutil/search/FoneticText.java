@@ -0,0 +1,199 @@
+package ru.iitdgroup.lingutil.search;
+
+import java.util.Arrays;
+
+import ru.iitdgroup.lingutil.collect.LetterSet;
+import ru.iitdgroup.lingutil.text.Folding;
+
+
+/**
+ * Text prepared for {@link FoneticSearch}: chars and, for every
+ * position, bit mask of chars which the digraph ending there may be
+ * substituted by (see {@link PhoneticTable}), held in primitive arrays.
+ * <p>
+ * Prepare a text once if many patterns need to be searched in it,
+ * e. g.:
+ * <blockquote><pre>
+ * FoneticText text = FoneticText.of(doc);
+ * for (String w : words)
+ *     matches.addAll(fs.findOccurrences(text, w, 2.5));
+ * </pre></blockquote>
+ * A prepared text may be refilled by {@link #set(CharSequence)}
+ * to process documents one by one without allocation. It is
+ * a {@link CharSequence}, so it is accepted wherever a text is.
+ * <p>
+ * Not thread-safe while being refilled; otherwise may be shared
+ * between concurrent searches.
+ *
+ * @author Salauyou
+ */
+public final class FoneticText implements CharSequence {
+
+    char[] chars;
+    long[] digraphs;
+    int    length;
+    
+    QGramIndex[] qgrams;    // by q, built on demand
+    SuffixArray  suffixes;  // built on demand
+
+
+    /**
+     * Creates an empty text to be filled by {@link #set(CharSequence)}
+     */
+    public FoneticText() {
+        this(16);
+    }
+
+
+    FoneticText(int capacity) {
+        chars    = new char[capacity];
+        digraphs = new long[capacity];
+    }
+
+
+    public static FoneticText of(CharSequence text) {
+        return new FoneticText(text.length()).set(text);
+    }
+
+
+    /**
+     * Prepares `text`, folding its chars if `fold` is set,
+     * see {@link #set(CharSequence, boolean)}
+     */
+    public static FoneticText of(CharSequence text, boolean fold) {
+        return new FoneticText(text.length()).set(text, fold);
+    }
+
+
+    /**
+     * Refills this instance by `text`, growing buffers if needed
+     */
+    public FoneticText set(CharSequence text) {
+        return set(text, false);
+    }
+
+
+    /**
+     * Refills this instance by `text`, and if `fold` is set, maps every 
+     * char by {@link Folding#fold(char)} while reading it, so there is 
+     * no need to make an upper-case copy of text. Folding keeps length,
+     * so offsets of matches are offsets in `text`
+     */
+    public FoneticText set(CharSequence text, boolean fold) {
+        int len = text.length();
+        ensureCapacity(len);
+        char[] cs = chars;
+        if (fold) {
+            for (int j = 0; j < len; j++)
+                cs[j] = Folding.fold(text.charAt(j));
+        } else {
+            for (int j = 0; j < len; j++)
+                cs[j] = text.charAt(j);
+        }
+        PhoneticTable tb = FoneticSearch.TABLE;
+        if (len > 0)
+            digraphs[0] = 0;
+        for (int j = 1; j < len; j++)
+            digraphs[j] = tb.digraphSubstitutes(cs[j - 1], cs[j]);
+        length = len;
+        qgrams = null;
+        suffixes = null;
+        return this;
+    }
+
+
+    /**
+     * Refills this instance by `text` with digraphs given as sets
+     */
+    FoneticText set(CharSequence text, LetterSet[] textDigraphs) {
+        int len = text.length();
+        ensureCapacity(len);
+        for (int j = 0; j < len; j++) {
+            chars[j]    = text.charAt(j);
+            digraphs[j] = PhoneticTable.mask(textDigraphs[j]);
+        }
+        length = len;
+        qgrams = null;
+        suffixes = null;
+        return this;
+    }
+
+
+    /**
+     * Refills this instance by chars `from` (inclusive) 
+     * to `to` (exclusive) of `text`
+     */
+    FoneticText set(FoneticText text, int from, int to) {
+        int len = to - from;
+        ensureCapacity(len);
+        System.arraycopy(text.chars, from, chars, 0, len);
+        System.arraycopy(text.digraphs, from, digraphs, 0, len);
+        length = len;
+        qgrams = null;
+        suffixes = null;
+        return this;
+    }
+
+
+    /**
+     * Index of phonetic q-grams of this text, built on the first call
+     */
+    synchronized QGramIndex qgrams(int q) {
+        if (qgrams == null)
+            qgrams = new QGramIndex[QGramIndex.MAX_Q + 1];
+        if (qgrams[q] == null)
+            qgrams[q] = new QGramIndex(this, q);
+        return qgrams[q];
+    }
+
+
+    /**
+     * Suffix array of this text, built on the first call
+     */
+    synchronized SuffixArray suffixes() {
+        if (suffixes == null)
+            suffixes = new SuffixArray(this);
+        return suffixes;
+    }
+
+
+    private void ensureCapacity(int len) {
+        if (len > chars.length) {
+            int c = Math.max(len, chars.length + (chars.length >> 1));
+            chars    = Arrays.copyOf(chars, c);
+            digraphs = Arrays.copyOf(digraphs, c);
+        }
+    }
+
+
+
+    // --------------- CharSequence --------------- //
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length)
+            throw new IndexOutOfBoundsException();
+        return chars[index];
+    }
+
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > length || start > end)
+            throw new IndexOutOfBoundsException();
+        return new String(chars, start, end - start);
+    }
+
+
+    @Override
+    public String toString() {
+        return new String(chars, 0, length);
+    }
+
+}
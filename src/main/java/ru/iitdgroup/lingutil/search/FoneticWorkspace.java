@@ -0,0 +1,378 @@
+package ru.iitdgroup.lingutil.search;
+
+import java.util.Arrays;
+
+import ru.iitdgroup.lingutil.collect.LetterSet;
+
+
+/**
+ * Reusable scratch memory for {@link FoneticSearch}: rolling rows
+ * of the search matrix, visit lists and marks. Buffers grow on demand
+ * to the longest text seen and are never shrinked, so once a workspace
+ * is warmed up, searching allocates nothing but resulting matches.
+ * <p>
+ * A workspace is not thread-safe and must not be shared between
+ * concurrent searches. Either keep one per thread and pass it
+ * explicitly, e. g.:
+ * <blockquote><pre>
+ * FoneticWorkspace ws = new FoneticWorkspace();
+ * for (String doc : docs)
+ *     matches.addAll(fs.findOccurrences(doc, word, 2.5, ws));
+ * </pre></blockquote>
+ * or use overloads without workspace argument, which take
+ * a thread-local one.
+ *
+ * @author Salauyou
+ */
+public final class FoneticWorkspace {
+
+    static final int INITIAL_LEN = 4096;
+
+    int capacity = 0;
+
+    // rows: costs, starting positions and list of positions 
+    // written in a row. Plain search takes 3 rows by turns,
+    // dictionary search takes a row per prefix char. Costs are 
+    // kept either as doubles or as fixed-point ints, rows of 
+    // each kind are allocated on the first search using it
+    double[][] t = null;
+    int[][]    q = null;
+    int[][]    s = new int[3][];
+    int[][]    w = new int[3][];
+    int[]      nw = new int[3];
+
+    double[]    initialT;     // first row, filled by 1.0
+    int[]       initialQ;     // first row, filled by 1
+    int[]       initialS;     // starting positions for the first row
+    int[]       all;          // all positions in natural order
+    int[]       v;            // positions to visit at current row
+    int[]       marks;        // visited marks, see `nextStamp()`
+    int         stamp = 0;
+    FoneticText    text    = new FoneticText();        // scratch for unprepared texts
+    FoneticPattern pattern = new FoneticPattern(16);   // scratch for uncompiled patterns
+    FoneticText    window  = new FoneticText();        // part of text to verify bit-parallel scan
+    FoneticText    chunk   = new FoneticText();        // part of text searched by a parallel task
+    BitParallelScan scan;
+    MultiPatternScan multiScan;
+    int[]  lo     = new int[16];       // ranges of possible match ends
+    int[]  hi     = new int[16];
+    long[] ranges = new long[16];      // the same, packed for q-gram filter to sort
+    long[] pieces = new long[16];      // pattern pieces by frequency
+    long[] codes  = new long[16];      // pattern pieces by class, for pigeonhole filter
+    SuffixPath path = new SuffixPath();               // suffix array traversal
+    FoneticPattern prefix = new FoneticPattern(16);   // key prefix of dictionary search
+    double[] rest = new double[16];    // lower bounds of cost of pattern suffixes
+
+    private boolean busy = false;
+
+
+    public FoneticWorkspace() {
+        this(INITIAL_LEN);
+    }
+
+
+    /**
+     * Creates a workspace ready for texts of up to `capacity` chars
+     * without further growth
+     */
+    public FoneticWorkspace(int capacity) {
+        ensureCapacity(capacity);
+    }
+
+
+    /**
+     * Current max text length this workspace holds without growth
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+
+    /**
+     * Grows buffers to fit texts of `len` chars
+     */
+    public void ensureCapacity(int len) {
+        if (len <= capacity && initialS != null)
+            return;
+        int c = Math.max(len, Math.max(16, capacity + (capacity >> 1)));
+        for (int k = 0; k < s.length; k++) 
+            allocateRow(k, c);
+        if (t != null)
+            allocateDoubleRows(c);
+        if (q != null)
+            allocateFixedRows(c);
+        initialS = new int[c + 2];
+        for (int j = 2; j < initialS.length; j++)
+            initialS[j] = j - 1;
+        all = new int[c];
+        for (int j = 0; j < c; j++)
+            all[j] = j;
+        v = new int[c];
+        marks = new int[c + 2];
+        stamp = 0;
+        capacity = c;
+    }
+
+
+
+    // ---------- package-private helpers for search -------- //
+
+    /**
+     * Makes sure there are at least `n` rows
+     */
+    void ensureRows(int n) {
+        if (n <= s.length)
+            return;
+        int k = s.length;
+        int c = Math.max(n, k * 2);
+        s  = Arrays.copyOf(s, c);
+        w  = Arrays.copyOf(w, c);
+        nw = Arrays.copyOf(nw, c);
+        for (; k < c; k++)
+            allocateRow(k, capacity);
+        if (t != null)
+            allocateDoubleRows(capacity);
+        if (q != null)
+            allocateFixedRows(capacity);
+    }
+
+
+    private void allocateRow(int k, int c) {
+        s[k]  = new int[c + 2];
+        w[k]  = new int[c + 2];
+        nw[k] = 0;
+    }
+
+
+    /**
+     * Makes sure rows of double costs are allocated
+     */
+    void useDoubleCosts() {
+        if (t == null || t.length < s.length)
+            allocateDoubleRows(capacity);
+    }
+
+
+    /**
+     * Makes sure rows of fixed-point costs are allocated
+     */
+    void useFixedCosts() {
+        if (q == null || q.length < s.length)
+            allocateFixedRows(capacity);
+    }
+
+
+    private void allocateDoubleRows(int c) {
+        int from = t == null || t[0].length != c + 2 ? 0 : t.length;
+        t = t == null ? new double[s.length][] : Arrays.copyOf(t, s.length);
+        for (int k = from; k < t.length; k++)
+            t[k] = new double[c + 2];
+        initialT = new double[c + 2];
+        Arrays.fill(initialT, 1.0);
+    }
+
+
+    private void allocateFixedRows(int c) {
+        int from = q == null || q[0].length != c + 2 ? 0 : q.length;
+        q = q == null ? new int[s.length][] : Arrays.copyOf(q, s.length);
+        for (int k = from; k < q.length; k++)
+            q[k] = new int[c + 2];
+        initialQ = new int[c + 2];
+        Arrays.fill(initialQ, 1);
+    }
+
+
+    /**
+     * Returns a stamp to mark positions with: position `p`
+     * is treated as marked if `marks[p] == stamp`, so
+     * there is no need to clear marks between rows
+     */
+    int nextStamp() {
+        if (++stamp == Integer.MAX_VALUE) {
+            Arrays.fill(marks, 0);
+            stamp = 1;
+        }
+        return stamp;
+    }
+
+
+    /**
+     * Clears row `k`, i. e. sets zero cost at every position
+     */
+    void clearRow(int k) {
+        int[] wk = w[k];
+        if (t != null) {
+            double[] r = t[k];
+            for (int i = nw[k] - 1; i >= 0; i--)
+                r[wk[i]] = 0;
+        }
+        if (q != null) {
+            int[] r = q[k];
+            for (int i = nw[k] - 1; i >= 0; i--)
+                r[wk[i]] = 0;
+        }
+        nw[k] = 0;
+    }
+
+
+    /**
+     * Returns `text` itself if it is already prepared, 
+     * otherwise prepares it in scratch text
+     */
+    FoneticText text(CharSequence text) {
+        return text(text, false);
+    }
+
+
+    /**
+     * Prepares `text` in scratch, folding it if `fold` is set, 
+     * unless it is already prepared
+     */
+    FoneticText text(CharSequence text, boolean fold) {
+        return text instanceof FoneticText ? (FoneticText) text : this.text.set(text, fold);
+    }
+
+
+    FoneticText text(CharSequence text, LetterSet[] textDigraphs) {
+        return this.text.set(text, textDigraphs);
+    }
+
+
+    BitParallelScan bitParallelScan() {
+        if (scan == null)
+            scan = new BitParallelScan();
+        return scan;
+    }
+
+
+    MultiPatternScan multiPatternScan() {
+        if (multiScan == null)
+            multiScan = new MultiPatternScan();
+        return multiScan;
+    }
+
+
+    /**
+     * Makes sure `lo` and `hi` hold at least `n` ranges, growing both 
+     * to the same length and keeping ranges already put
+     */
+    void ensureRanges(int n) {
+        if (lo.length >= n && hi.length >= n)
+            return;
+        int c = Math.max(n, Math.max(lo.length, hi.length) * 2);
+        lo = Arrays.copyOf(lo, c);
+        hi = Arrays.copyOf(hi, c);
+    }
+
+
+    long[] ranges(int n) {
+        if (ranges.length < n)
+            ranges = new long[Math.max(n, ranges.length * 2)];
+        return ranges;
+    }
+
+
+    long[] pieces(int n) {
+        if (pieces.length < n)
+            pieces = new long[Math.max(n, pieces.length * 2)];
+        return pieces;
+    }
+
+
+    /**
+     * Returns `n` piece codes, cleared
+     */
+    long[] codes(int n) {
+        if (codes.length < n)
+            codes = new long[Math.max(n, codes.length * 2)];
+        Arrays.fill(codes, 0, n, 0);
+        return codes;
+    }
+
+
+    /**
+     * Prepares suffix array traversal to paths of up to `depth` 
+     * chars for pattern of `m` chars
+     */
+    SuffixPath suffixPath(int depth, int m) {
+        path.prepare(depth, m);
+        return path;
+    }
+
+
+    FoneticPattern pattern(CharSequence p) {
+        return pattern.set(p);
+    }
+
+
+    FoneticPattern pattern(CharSequence p, boolean fold) {
+        return pattern.set(p, fold);
+    }
+
+
+
+    /**
+     * Buffers of suffix array traversal: stack of nodes of current path, 
+     * columns of costs of pattern prefixes at them, and match ends found
+     */
+    static final class SuffixPath {
+
+        double[][] cols = new double[0][];  // column for depth d is `cols[d + 1]`
+        int[]      to   = new int[0];       // node at depth d is `next[d]..to[d]`
+        int[]      next = new int[0];
+        int[]      ends = new int[16];
+
+
+        void prepare(int depth, int m) {
+            if (cols.length < depth + 2 || cols[0].length < m + 1) {
+                int w = Math.max(m + 1, cols.length == 0 ? 0 : cols[0].length);
+                cols = new double[Math.max(depth + 2, cols.length)][w];
+            }
+            for (int d = 0; d < depth + 2; d++)
+                Arrays.fill(cols[d], Double.POSITIVE_INFINITY);
+            if (to.length < depth + 1) {
+                to   = new int[depth + 1];
+                next = new int[depth + 1];
+            }
+            Arrays.fill(next, 0, depth + 1, 0);
+        }
+
+
+        /**
+         * Makes sure `ends` holds at least `n` ends, keeping ones already put
+         */
+        int[] ends(int n) {
+            if (ends.length < n)
+                ends = Arrays.copyOf(ends, Math.max(n, ends.length * 2));
+            return ends;
+        }
+
+    }
+
+
+
+    // ----------- thread-local pool ----------- //
+
+    static final ThreadLocal<FoneticWorkspace> LOCAL
+        = ThreadLocal.withInitial(FoneticWorkspace::new);
+
+
+    /**
+     * Takes the workspace of current thread, or a new one if
+     * it is already taken by outer search (e. g. when a search
+     * is started from match consumer)
+     */
+    static FoneticWorkspace acquire() {
+        FoneticWorkspace ws = LOCAL.get();
+        if (ws.busy)
+            return new FoneticWorkspace();
+        ws.busy = true;
+        return ws;
+    }
+
+
+    void release() {
+        busy = false;
+    }
+
+}
@@ -0,0 +1,55 @@
+package ru.iitdgroup.lingutil.search;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import ru.iitdgroup.lingutil.match.ScoredMatch;
+import ru.iitdgroup.lingutil.text.Latin1Text;
+
+
+/**
+ * Search over files in ISO-8859-1 (Latin-1) or ASCII, mapped into
+ * memory as {@link Latin1Text}: bytes are read as chars directly from
+ * mapping, without decoding the file into a `String`. Offsets of found
+ * matches are the same as of search in decoded text.
+ *
+ * @author Salauyou
+ */
+public final class MappedFileSearch {
+
+    private MappedFileSearch() { }
+
+
+
+    /**
+     * Searches for occurrences of `pattern` in `file` by `search`. The file
+     * is fed to {@link StreamingFoneticSearch}, so only a block of it
+     * is held in search arrays at a time. Returns the same matches as
+     * {@link FoneticSearch#findOccurrences(CharSequence, CharSequence,
+     * double)} for decoded text
+     */
+    public static List<ScoredMatch> findOccurrences(FoneticSearch search, Path file,
+                                                    CharSequence pattern, double maxCost)
+                                                    throws IOException {
+        List<ScoredMatch> res = new ArrayList<>();
+        new StreamingFoneticSearch(search, pattern, maxCost, res::add)
+            .append(Latin1Text.map(file))
+            .finish();
+        return res;
+    }
+
+
+
+    /**
+     * Searches for `word` in `file` by {@link LcsSearch#findLcsOccurrences(
+     * CharSequence, CharSequence, int, int, int)}, which reads
+     * mapped bytes directly
+     */
+    public static List<ScoredMatch> findLcsOccurrences(Path file, CharSequence word, int maxWidth,
+                                                       int minLcs, int maxGap) throws IOException {
+        return LcsSearch.findLcsOccurrences(Latin1Text.map(file), word, maxWidth, minLcs, maxGap);
+    }
+
+}
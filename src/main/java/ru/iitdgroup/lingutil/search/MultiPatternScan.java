@@ -0,0 +1,277 @@
+package ru.iitdgroup.lingutil.search;
+
+import java.util.Arrays;
+
+
+/**
+ * Single-pass bit-parallel scan for all patterns of a
+ * {@link FoneticPatternSet}. Automata are the same as in
+ * {@link BitParallelScan}, but several patterns are packed into
+ * one lane, and text is read once: at each char, lanes which it can
+ * start a match in are woken up, then all active lanes are advanced
+ * together, and ones reaching nothing for two chars in a row fall asleep.
+ * <p>
+ * Patterns of a lane share its vectors: a carry from the last position
+ * of one pattern into the first position of the next one is absorbed
+ * by the first row, which is reachable everywhere, and transitions
+ * skipping a pattern char never lead into first positions.
+ * <p>
+ * State of all lanes is kept in flat primitive arrays: level vectors
+ * of three last chars by turns, and bit sets of active lanes and
+ * of ones which reached nothing at previous char. Active lanes are
+ * advanced in index order, so their masks are read in a row.
+ *
+ * @author Salauyou
+ */
+final class MultiPatternScan {
+
+    // level vectors of every lane at three last text chars by turns,
+    // shifted for transition from previous pattern char as `a` vectors
+    // of `BitParallelScan` (`b` ones are them shifted once more, with
+    // first positions cleared). Level `l` of generation `g` of lane `f`
+    // is held at `(f * 3 + g) * width + pad + l`, lower slots are zeros,
+    // standing for negative levels. Vectors of inactive lanes hold
+    // nothing but the first row
+    long[] d = new long[0];
+    int    width;
+    int    pad;
+    int    lv, S, D, G, R;             // max level and costs in units
+
+    long[] active = new long[0];
+    long[] quiet  = new long[0];
+
+    // found ends: scanned pattern and position, in order of position
+    int[] endF = new int[16];
+    int[] endJ = new int[16];
+
+    // the same ends grouped by scanned pattern: ends of pattern
+    // `f` are `grouped[offsets[f]..offsets[f + 1]]`
+    int[] grouped = new int[16];
+    int[] offsets = new int[1];
+
+
+    /**
+     * Scans `text` for ends of matches of scanned patterns of `set`
+     * with costs in units given by {@link BitParallelScan#units},
+     * grouping them into {@link #grouped}. Returns number of ends
+     */
+    int scan(FoneticText text, FoneticPatternSet set, int[] units) {
+        lv = units[0];
+        S  = units[1];
+        D  = units[2];
+        G  = units[3];
+        R  = units[4];
+        int nl = set.lanes;
+        int nw = set.words;
+        prepare(set);
+
+        long[]  act  = active;
+        long[]  qt   = quiet;
+        long[]  ms   = set.masks;
+        long[]  eo   = set.eqOther;
+        long[]  tr   = set.triggers;
+        long[]  dtr  = set.digraphTriggers;
+        long[]  st   = set.starts;
+        short[] sl   = set.slots;
+        char[]  tc   = text.chars;
+        long[]  td   = text.digraphs;
+        int     nb   = PhoneticTable.SIZE;
+        int     n    = 0;
+
+        for (int j = 0; j < text.length(); j++) {
+            char b    = tc[j];
+            int  slot = sl[b];
+            int  bb   = PhoneticTable.bit(b);
+            long tdj  = td[j];
+            int  g0   = j % 3;                 // generations of j, j - 1, j - 2
+            int  g1   = (j + 2) % 3;
+            int  g2   = (j + 1) % 3;
+
+            for (int w = 0; w < nw; w++) {
+                // wake up lanes which can be started here,
+                // they have nothing reached at previous chars
+                long wake = slot < 0 ? 0 : tr[slot * nw + w];
+                for (long r = tdj; r != 0; r &= r - 1)
+                    wake |= dtr[Long.numberOfTrailingZeros(r) * nw + w];
+                wake &= ~act[w];
+                qt[w]  |= wake;
+                act[w] |= wake;
+
+                // advance active ones
+                for (long r = act[w]; r != 0; r &= r - 1) {
+                    int  f = w << 6 | Long.numberOfTrailingZeros(r);
+                    long eq, sb, la;
+                    if (bb >= 0) {
+                        int k = (bb * nl + f) * 3;
+                        eq = ms[k];
+                        sb = ms[k + 1];
+                        la = ms[k + 2];
+                    } else {
+                        eq = slot < 0 ? 0 : eo[(slot - nb) * nl + f];
+                        sb = la = 0;
+                    }
+                    long lb = 0, both = 0;
+                    for (long t = tdj; t != 0; t &= t - 1) {
+                        int k = (Long.numberOfTrailingZeros(t) * nl + f) * 3;
+                        lb   |= ms[k];
+                        both |= ms[k + 2];
+                    }
+                    long hits = 0;
+                    boolean reached;
+                    if ((eq | sb | la | lb | both) != 0) {
+                        hits = advance(f, g0, g1, g2, set, eq, sb, la, lb, both);
+                        reached = this.reached;
+                    } else {
+                        // no lane position can be reached by this char
+                        clear(f, g0, st[f]);
+                        reached = false;
+                    }
+                    if (hits != 0)
+                        n = report(set, f, hits, j, n);
+                    long bit = r & -r;
+                    if (reached)
+                        qt[w] &= ~bit;
+                    else if ((qt[w] & bit) == 0)
+                        qt[w] |= bit;
+                    else {
+                        // nothing is reached at two last chars, and
+                        // the third one is cleared for next activation
+                        act[w] &= ~bit;
+                        clear(f, g2, st[f]);
+                    }
+                }
+            }
+        }
+        group(n, set.scanned.length);
+        return n;
+    }
+
+
+    boolean reached;      // whether last advance reached any position
+
+    /**
+     * Advances lane `f` by text char with given masks, computing
+     * its generation `g0` from `g1` and `g2`. Returns last positions
+     * of patterns which have a match ending here, and sets
+     * {@link #reached} if any lane position is reached
+     */
+    private long advance(int f, int g0, int g1, int g2, FoneticPatternSet set,
+                         long eq, long sb, long la, long lb, long both) {
+        long[] d       = this.d;
+        int    w       = width;
+        int    lv      = this.lv, S = this.S, D = this.D, G = this.G, R = this.R;
+        long   st      = set.starts[f];
+        long   nst     = ~st;
+        long   full    = set.full[f];
+        long   last    = set.lasts[f];
+        long   prelast = last >>> 1;
+        int    k0      = (f * 3 + g0) * w + pad;
+        int    k1      = (f * 3 + g1) * w + pad;
+        int    k2      = (f * 3 + g2) * w + pad;
+        long   any     = 0;
+        long   hits    = 0;
+        for (int l = 0; l <= lv; l++) {
+            long x = eq   & (d[k1 + l] | d[k2 + l - G]
+                             | nst & (d[k1 + l - G] | d[k2 + l - R]) << 1)
+                   | sb   & (d[k1 + l - S] | d[k2 + l - S - G]
+                             | nst & (d[k1 + l - S - G] | d[k2 + l - S - R]) << 1)
+                   | la   & nst & (d[k1 + l - D] | d[k2 + l - D - G]) << 1
+                   | lb   & (d[k2 + l - D] | nst & d[k2 + l - D - G] << 1)
+                   | both & nst & d[k2 + l - D] << 1;
+            x &= full;
+            d[k0 + l] = x << 1 | st;
+            any |= x;
+
+            // match of the whole pattern, or of all but
+            // the last char, which is then a gap
+            if (l == lv)
+                hits |= x & last;
+            if (l == lv - G)
+                hits |= (x & prelast) << 1;
+        }
+        reached = any != 0;
+        return hits;
+    }
+
+
+    /**
+     * Adds ends at `j` of patterns of lane `f` whose last positions
+     * are `hits`. Returns new number of ends
+     */
+    private int report(FoneticPatternSet set, int f, long hits, int j, int n) {
+        long lasts = set.lasts[f];
+        int  base  = set.first[f];
+        for (long r = hits; r != 0; r &= r - 1) {
+            if (n == endF.length) {
+                endF = Arrays.copyOf(endF, n * 2);
+                endJ = Arrays.copyOf(endJ, n * 2);
+            }
+            // segment number is the number of patterns ending below
+            long below = (r & -r) - 1;
+            endF[n] = set.segments[base + Long.bitCount(lasts & below)];
+            endJ[n++] = j;
+        }
+        return n;
+    }
+
+
+    /**
+     * Sets vectors of lane `f` at generation `g` to nothing
+     * reached but the first row `st`
+     */
+    private void clear(int f, int g, long st) {
+        int k = (f * 3 + g) * width + pad;
+        for (int l = 0; l <= lv; l++)
+            d[k + l] = st;
+    }
+
+
+    private void prepare(FoneticPatternSet set) {
+        int nl = set.lanes;
+        int nw = set.words;
+        int nf = set.scanned.length;
+        // costs above max level are cut to max level + 1,
+        // so two of them take at most 2 * max level + 2
+        pad   = 2 * lv + 2;
+        width = pad + lv + 1;
+        int size = 3 * nl * width;
+        if (d.length < size)
+            d = new long[size];
+        for (int f = 0; f < nl; f++) {
+            int k = f * 3 * width;
+            for (int g = 0; g < 3; g++) {
+                Arrays.fill(d, k, k + pad, 0);
+                Arrays.fill(d, k + pad, k + width, set.starts[f]);
+                k += width;
+            }
+        }
+        if (active.length < nw) {
+            active = new long[nw];
+            quiet  = new long[nw];
+        }
+        Arrays.fill(active, 0);
+        Arrays.fill(quiet, 0);
+        if (offsets.length < nf + 1)
+            offsets = new int[nf + 1];
+    }
+
+
+    /**
+     * Counting sort of found ends by scanned
+     * pattern, keeping order of positions
+     */
+    private void group(int n, int nf) {
+        if (grouped.length < n)
+            grouped = new int[Math.max(n, grouped.length * 2)];
+        int[] off = offsets;
+        Arrays.fill(off, 0, nf + 1, 0);
+        for (int z = 0; z < n; z++)
+            off[endF[z] + 1]++;
+        for (int f = 0; f < nf; f++)
+            off[f + 1] += off[f];
+        int[] pos = Arrays.copyOf(off, nf);
+        for (int z = 0; z < n; z++)
+            grouped[pos[endF[z]]++] = endJ[z];
+    }
+
+}
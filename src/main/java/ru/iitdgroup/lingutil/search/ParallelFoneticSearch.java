@@ -0,0 +1,307 @@
+package ru.iitdgroup.lingutil.search;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BiConsumer;
+
+import ru.iitdgroup.lingutil.collect.TrieMap;
+import ru.iitdgroup.lingutil.match.ScoredMatch;
+
+
+/**
+ * Searches many patterns in one text by {@link FoneticSearch}
+ * on a {@link ForkJoinPool}, e. g.:
+ * <blockquote><pre>
+ * ParallelFoneticSearch ps = new ParallelFoneticSearch(fs, pool);
+ * List&lt;List&lt;ScoredMatch&gt;&gt; res = ps.findOccurrences(doc, watchList, 2.5);
+ * </pre></blockquote>
+ * Text is prepared once and shared by all workers. Patterns are
+ * split into work-stealing tasks of contiguous index ranges, and every
+ * worker searches with its own thread-local {@link FoneticWorkspace},
+ * so nothing but matches is allocated once workers are warmed up.
+ * <p>
+ * Matches are collected by pattern and returned (or sent to consumer
+ * from the calling thread) in pattern order, each pattern's matches
+ * sorted by start position, so output does not depend on scheduling
+ * and equals output of sequential search.
+ * <p>
+ * A single pattern may be searched in a long text, which is then cut
+ * into chunks searched in parallel, see {@link #setChunkLength(int)}.
+ * <p>
+ * Thread-safe as long as underlying {@link FoneticSearch} is not
+ * reconfigured during search.
+ *
+ * @author Salauyou
+ */
+public class ParallelFoneticSearch {
+
+    final FoneticSearch search;
+    final ForkJoinPool  pool;
+    int grain = 0;
+    int chunkLength = 1 << 16;
+
+
+    public ParallelFoneticSearch(FoneticSearch search, ForkJoinPool pool) {
+        this.search = search;
+        this.pool   = pool;
+    }
+
+
+    /**
+     * Creates an instance running on common pool
+     */
+    public ParallelFoneticSearch(FoneticSearch search) {
+        this(search, ForkJoinPool.commonPool());
+    }
+
+
+    /**
+     * Max number of patterns searched by one task. Zero (default)
+     * means a few tasks per pool thread, so idle threads have
+     * something to steal when patterns take uneven time
+     */
+    public ParallelFoneticSearch setGrain(int patterns) {
+        this.grain = patterns;
+        return this;
+    }
+
+
+
+    /**
+     * Length of chunks, which a text is cut into to search for
+     * a single pattern, 64K chars by default. Chunks are widened to
+     * hold any match of the pattern, and every chunk is searched with
+     * an overlap with previous one, so costs at its ends are the same
+     * as in the whole text. Workspaces of workers grow up to chunk size
+     * rather than to text size
+     */
+    public ParallelFoneticSearch setChunkLength(int chars) {
+        this.chunkLength = chars;
+        return this;
+    }
+
+
+
+    /**
+     * Searches for occurrences of every pattern of `patterns` in `text`.
+     * Returns list of matches for each pattern, in order of `patterns`,
+     * the same as {@link FoneticSearch#findOccurrences(CharSequence,
+     * CharSequence, double)} would return
+     */
+    public List<List<ScoredMatch>> findOccurrences(CharSequence text,
+                                                   List<? extends CharSequence> patterns,
+                                                   double maxCost) {
+        CharSequence[] ps = patterns.toArray(new CharSequence[patterns.size()]);
+        return run(prepare(text), ps.length, grain(ps.length),
+                   (t, i, ws) -> search.findOccurrences(t, ps[i], maxCost, ws));
+    }
+
+
+
+    /**
+     * The same as {@link ParallelFoneticSearch#findOccurrences(CharSequence,
+     * List, double)} for compiled patterns, which are shared by workers
+     */
+    public List<List<ScoredMatch>> findOccurrences(CharSequence text, FoneticPatternSet patterns,
+                                                   double maxCost) {
+        return run(prepare(text), patterns.size(), grain(patterns.size()),
+                   (t, i, ws) -> search.findOccurrences(t, patterns.get(i), maxCost, ws));
+    }
+
+
+
+    /**
+     * Searches for occurrences of compiled `patterns` in `text`, sending
+     * them to `matchConsumer` together with index of pattern in the set,
+     * grouped by pattern in index order and sorted by start position.
+     * Returns the number of matches found
+     */
+    public int search(CharSequence text, FoneticPatternSet patterns, double maxCost,
+                      BiConsumer<ScoredMatch, Integer> matchConsumer) {
+        int found = 0;
+        List<List<ScoredMatch>> res = findOccurrences(text, patterns, maxCost);
+        for (int i = 0; i < res.size(); i++) {
+            for (ScoredMatch m : res.get(i))
+                matchConsumer.accept(m, i);
+            found += res.get(i).size();
+        }
+        return found;
+    }
+
+
+
+    /**
+     * Searches for occurrences of all keys of `dictionary` in `text`,
+     * sending them to `matchConsumer` together with key value, from
+     * the calling thread. Matches of the same key are sorted by start
+     * position, keys go in dictionary iteration order.
+     * <p>
+     * Unlike {@link FoneticSearch#search(CharSequence, TrieMap, double,
+     * BiConsumer)}, keys are searched independently, so rows of common
+     * prefixes are not shared, which pays off only if there are enough
+     * cores to compensate
+     */
+    public <T> int search(CharSequence text, TrieMap<? extends T> dictionary, double maxCost,
+                          BiConsumer<ScoredMatch, ? super T> matchConsumer) {
+        List<String> keys   = new ArrayList<>(dictionary.size());
+        List<T>      values = new ArrayList<>(dictionary.size());
+        dictionary.forEach((k, v) -> {
+            keys.add(k);
+            values.add(v);
+        });
+        int found = 0;
+        List<List<ScoredMatch>> res = findOccurrences(text, keys, maxCost);
+        for (int i = 0; i < res.size(); i++) {
+            for (ScoredMatch m : res.get(i))
+                matchConsumer.accept(m, values.get(i));
+            found += res.get(i).size();
+        }
+        return found;
+    }
+
+
+
+    /**
+     * Searches for occurrences of `pattern` in `text`, cutting it into
+     * chunks, which are searched in parallel. Returns the same matches
+     * as {@link FoneticSearch#findOccurrences(CharSequence, CharSequence,
+     * double)}, sorted by start position
+     */
+    public List<ScoredMatch> findOccurrences(CharSequence text, CharSequence pattern, double maxCost) {
+        return findOccurrences(text, FoneticSearch.compile(pattern, search.config().folding), maxCost);
+    }
+
+
+
+    /**
+     * The same as {@link ParallelFoneticSearch#findOccurrences(CharSequence,
+     * CharSequence, double)} for compiled pattern
+     */
+    public List<ScoredMatch> findOccurrences(CharSequence text, FoneticPattern pattern, double maxCost) {
+        FoneticText t = prepare(text);
+        int len = t.length();
+        
+        // a match of m-char pattern spans at most 2m chars, 
+        // and costs at its end depend on at most 2m chars before it
+        int reach = 2 * pattern.length() + 4;
+        int chunk = Math.max(chunkLength, reach);
+        int n     = (len + chunk - 1) / chunk;
+        List<List<ScoredMatch>> parts = run(t, n, 1, (tx, c, ws) -> {
+            int from = c * chunk;
+            int to   = Math.min(len, from + chunk);
+            int wf   = Math.max(0, from - reach);
+            List<ScoredMatch> res = new ArrayList<>();
+            for (ScoredMatch m : search.findOccurrences(ws.chunk.set(tx, wf, to), pattern, maxCost, ws)) {
+                // matches ending in overlap belong to previous chunk, 
+                // the first one also keeps matches ending at 0
+                if (from == 0 || m.end + wf > from)
+                    res.add(wf == 0 ? m : new ScoredMatch(m.start + wf, m.end + wf, m.score));
+            }
+            return res;
+        });
+        return stitch(parts);
+    }
+
+
+
+    // ------------------ private stuff ----------------- //
+
+    @FunctionalInterface
+    interface IndexedSearch {
+        List<ScoredMatch> find(FoneticText text, int i, FoneticWorkspace ws);
+    }
+
+
+    private FoneticText prepare(CharSequence text) {
+        return text instanceof FoneticText ? (FoneticText) text 
+                                           : FoneticText.of(text, search.config().folding);
+    }
+
+
+    private int grain(int n) {
+        return grain > 0 ? grain : Math.max(1, n / (pool.getParallelism() * 4));
+    }
+
+
+    /**
+     * Runs `ps` for `0..n` in tasks of `grain` searches 
+     * and returns results by index
+     */
+    private List<List<ScoredMatch>> run(FoneticText text, int n, int grain, IndexedSearch ps) {
+        List<List<ScoredMatch>> res = new ArrayList<>(Collections.nCopies(n, null));
+        if (n > 0)
+            pool.invoke(new Task(text, ps, res, grain, 0, n));
+        return res;
+    }
+
+
+    /**
+     * Joins matches of chunks, each sorted by start, into one list sorted 
+     * by start. Matches of different chunks may share a start only near 
+     * a seam of adjacent chunks, and sequential search keeps the one which 
+     * ends farther, i. e. the match of the later chunk
+     */
+    private static List<ScoredMatch> stitch(List<List<ScoredMatch>> parts) {
+        List<ScoredMatch> res = new ArrayList<>();
+        for (int c = 0; c < parts.size(); c++) {
+            List<ScoredMatch> next = c + 1 < parts.size() ? parts.get(c + 1) : Collections.emptyList();
+            int z = 0;
+            for (ScoredMatch m : parts.get(c)) {
+                while (z < next.size() && next.get(z).start < m.start)
+                    z++;
+                if (z == next.size() || next.get(z).start != m.start)
+                    res.add(m);
+            }
+        }
+        res.sort((m1, m2) -> m1.start - m2.start);
+        return res;
+    }
+
+
+
+    /**
+     * Runs searches `from..to`, splitting the range
+     * in halves until it fits `grain`
+     */
+    static final class Task extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        final FoneticText             text;
+        final IndexedSearch           ps;
+        final List<List<ScoredMatch>> res;
+        final int grain, from, to;
+
+
+        Task(FoneticText text, IndexedSearch ps, List<List<ScoredMatch>> res, int grain, int from, int to) {
+            this.text  = text;
+            this.ps    = ps;
+            this.res   = res;
+            this.grain = grain;
+            this.from  = from;
+            this.to    = to;
+        }
+
+
+        @Override
+        protected void compute() {
+            if (to - from > grain) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new Task(text, ps, res, grain, from, mid),
+                          new Task(text, ps, res, grain, mid, to));
+                return;
+            }
+            FoneticWorkspace ws = FoneticWorkspace.acquire();
+            try {
+                for (int i = from; i < to; i++)
+                    res.set(i, ps.find(text, i, ws));
+            } finally {
+                ws.release();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,211 @@
+package ru.iitdgroup.lingutil.search;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import ru.iitdgroup.lingutil.collect.SimpleTrieMap;
+import ru.iitdgroup.lingutil.collect.TrieMap;
+import ru.iitdgroup.lingutil.match.ScoredMatch;
+import ru.iitdgroup.lingutil.text.Folding;
+import ru.iitdgroup.lingutil.text.Word;
+import ru.iitdgroup.lingutil.text.Words;
+
+
+/**
+ * Index of dictionary entries by phonetic key (see {@link #key(CharSequence)}),
+ * where words differing only by phonetic substitutions, like "PIZZA"
+ * and "PITSA" or "MUSTAFA" and "MOUSTAPHA", mostly share a key. A word
+ * is looked up by one {@link TrieMap} access, and entries found are
+ * verified by {@link FoneticSearch#getScore(CharSequence, CharSequence,
+ * double)}, which is cheap for a word. So words, which are phonetic
+ * variants of an entry, are resolved without searching through the whole
+ * dictionary, and only the rest of them (see {@link #search(CharSequence,
+ * double, BiConsumer, Consumer)}) need full search.
+ * <p>
+ * A key is a filter, not a score: words with the same key may cost more
+ * than max cost (many substitutions), and words within max cost may have
+ * different keys (gaps, replacements or overlapping digraphs), so the
+ * index finds a subset of what full search finds.
+ * <p>
+ * Not thread-safe while entries are added, may be shared by threads after
+ * that if `search` is immutable.
+ *
+ * @author Salauyou
+ */
+public class PhoneticKeyIndex<V> {
+
+    final FoneticSearch                   search;
+    final TrieMap<List<Entry<String, V>>> entries = new SimpleTrieMap<>();
+    int                                   size;
+
+
+    /**
+     * Creates empty index, which entries are verified by `search`
+     */
+    public PhoneticKeyIndex(FoneticSearch search) {
+        this.search = search;
+    }
+
+
+    /**
+     * Creates index of all entries of `dictionary`
+     */
+    public PhoneticKeyIndex(FoneticSearch search, Map<String, ? extends V> dictionary) {
+        this(search);
+        dictionary.forEach(this::put);
+    }
+
+
+    /**
+     * Adds an entry (folded if `search` folds, see {@link
+     * FoneticSearch#setFolding(boolean)}), replacing value
+     * of the same entry if it is already added
+     */
+    public PhoneticKeyIndex<V> put(String entry, V value) {
+        String e = search.config().folding ? Folding.fold(entry) : entry;
+        List<Entry<String, V>> es = entries.get(key(e));
+        if (es == null)
+            entries.put(key(e), es = new ArrayList<>(1));
+        for (int i = 0; i < es.size(); i++) {
+            if (es.get(i).getKey().equals(e)) {
+                es.set(i, new SimpleImmutableEntry<>(e, value));
+                return this;
+            }
+        }
+        es.add(new SimpleImmutableEntry<>(e, value));
+        size++;
+        return this;
+    }
+
+
+    /**
+     * Number of entries
+     */
+    public int size() {
+        return size;
+    }
+
+
+    /**
+     * Entries having the same key as `word`, unverified
+     */
+    public List<Entry<String, V>> candidates(CharSequence word) {
+        List<Entry<String, V>> es = entries.get(key(search.config().folding ? Folding.fold(word) : word));
+        return es == null ? Collections.emptyList() : Collections.unmodifiableList(es);
+    }
+
+
+    /**
+     * Sends to `matchConsumer` values of entries having the same key as
+     * `word` and matching it within `maxCost`, together with a match
+     * spanning the whole word and scored by its cost. Returns the number
+     * of entries sent
+     */
+    public int lookup(CharSequence word, double maxCost,
+                      BiConsumer<ScoredMatch, ? super V> matchConsumer) {
+        return lookup(word, 0, maxCost, matchConsumer);
+    }
+
+
+    /**
+     * Splits `text` into words (see {@link Words#splitIntoWords(String)})
+     * and looks up every word, sending matches with offsets in `text`.
+     * Words, for which no entry is found, are sent to `residue`, e. g.
+     * to search them by {@link FoneticSearch#search(CharSequence, TrieMap,
+     * double, BiConsumer)}. Returns the number of matches sent
+     */
+    public int search(CharSequence text, double maxCost,
+                      BiConsumer<ScoredMatch, ? super V> matchConsumer, Consumer<Word> residue) {
+        int found = 0;
+        for (Word w : Words.splitIntoWords(text.toString())) {
+            int n = lookup(w, w.start(), maxCost, matchConsumer);
+            if (n == 0)
+                residue.accept(w);
+            found += n;
+        }
+        return found;
+    }
+
+
+
+    private int lookup(CharSequence word, int offset, double maxCost,
+                       BiConsumer<ScoredMatch, ? super V> matchConsumer) {
+        int found = 0;
+        for (Entry<String, V> e : candidates(word)) {
+            double cost = search.getScore(word, e.getKey(), maxCost);
+            if (cost <= maxCost) {
+                matchConsumer.accept(new ScoredMatch(offset, offset + word.length(), cost), e.getValue());
+                found++;
+            }
+        }
+        return found;
+    }
+
+
+
+    // ---------------- phonetic keys ---------------- //
+
+    static final char[] KEYS         = new char[PhoneticTable.SIZE];   // by bit
+    static final char[] DIGRAPH_KEYS = new char[PhoneticTable.SIZE * PhoneticTable.SIZE];
+
+    static {
+        // a class is keyed by its first upper-case letter, if any, 
+        // a digraph by the largest class of its substitutes
+        int[] sizes = new int[PhoneticTable.SIZE];
+        for (char c : PhoneticTable.CHARS)
+            sizes[QGramIndex.classOf(c)]++;
+        String order = "ABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789abcdefghijklmnopqrstuvwxyz";
+        for (char c : order.toCharArray()) {
+            for (char r : PhoneticTable.CHARS) {
+                if (QGramIndex.classOf(r) == QGramIndex.classOf(c) && KEYS[PhoneticTable.bit(r)] == 0)
+                    KEYS[PhoneticTable.bit(r)] = c;
+            }
+        }
+        long[] ds = FoneticSearch.TABLE.digraphs;
+        for (int x = 0; x < ds.length; x++) {
+            int best = -1;
+            for (long r = ds[x]; r != 0; r &= r - 1) {
+                int b = Long.numberOfTrailingZeros(r);
+                if (best < 0 || sizes[QGramIndex.CLASSES[b]] > sizes[QGramIndex.CLASSES[best]])
+                    best = b;
+            }
+            if (best >= 0)
+                DIGRAPH_KEYS[x] = KEYS[best];
+        }
+    }
+
+
+    /**
+     * Phonetic key of `word`: every char is replaced by the first letter
+     * of its class (connected component of substitutions), and every
+     * digraph, which has substitutes, by the key of its substitute
+     * from the largest class, taking digraphs greedily from left
+     * to right. So "PIZZA" and "PITSA" give "BECA", "MUSTAFA" and
+     * "MOUSTAPHA" give "MASDABA". Chars out of [0-9a-zA-Z] are kept
+     */
+    public static String key(CharSequence word) {
+        int n = word.length();
+        StringBuilder sb = new StringBuilder(n);
+        for (int i = 0; i < n; i++) {
+            char c = word.charAt(i);
+            if (i + 1 < n) {
+                int x = PhoneticTable.index(c, word.charAt(i + 1));
+                if (x >= 0 && DIGRAPH_KEYS[x] != 0) {
+                    sb.append(DIGRAPH_KEYS[x]);
+                    i++;
+                    continue;
+                }
+            }
+            int b = PhoneticTable.bit(c);
+            sb.append(b < 0 ? c : KEYS[b]);
+        }
+        return sb.toString();
+    }
+
+}
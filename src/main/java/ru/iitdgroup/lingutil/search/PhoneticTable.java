@@ -0,0 +1,148 @@
+package ru.iitdgroup.lingutil.search;
+
+import java.util.Arrays;
+
+import ru.iitdgroup.lingutil.collect.CharMap;
+import ru.iitdgroup.lingutil.collect.CharTable;
+import ru.iitdgroup.lingutil.collect.LetterSet;
+
+
+/**
+ * Flat array-backed table of phonetic equivalences over
+ * {@link LetterSet} alphabet [0-9a-zA-Z], where every question
+ * is answered by a single indexed bit test:
+ * <ul>
+ * <li>is `b` a substitute for `a` (in either direction of
+ * substitution map, as {@link FoneticSearch} treats it);
+ * <li>can digraph `xy` be substituted by `c`.
+ * </ul>
+ * Chars are mapped to bits in the same way as in {@link LetterSet}:
+ * [0-9] take bits 0..9, [a-z] take 10..35, [A-Z] take 36..61.
+ * Chars outside the alphabet have no substitutes and form no digraphs.
+ *
+ * @author Salauyou
+ * @Immutable
+ */
+public final class PhoneticTable {
+
+    static final int SIZE = 64;
+
+    final long[] subs     = new long[SIZE];           // by bit(a)
+    final long[] digraphs = new long[SIZE * SIZE];    // by bit(x) << 6 | bit(y)
+
+
+    private PhoneticTable(CharMap<LetterSet> subsMap, CharTable<LetterSet> digraphTable) {
+        for (char a : CHARS) {
+            LetterSet sa = subsMap.get(a);
+            if (sa == null)
+                continue;
+            for (char b : sa.chars().toCharArray()) {
+                subs[bit(a)] |= 1L << bit(b);
+                subs[bit(b)] |= 1L << bit(a);
+            }
+        }
+        for (char x : CHARS) {
+            for (char y : CHARS) {
+                LetterSet d = digraphTable.get(x, y);
+                if (d != null)
+                    digraphs[bit(x) << 6 | bit(y)] = mask(d);
+            }
+        }
+    }
+
+
+    /**
+     * Builds a table from map of one-char substitutions and
+     * table of digraph substitutions
+     */
+    public static PhoneticTable of(CharMap<LetterSet> subs, CharTable<LetterSet> digraphs) {
+        return new PhoneticTable(subs, digraphs);
+    }
+
+
+    /**
+     * Is `b` a substitute for `a` or vice versa
+     */
+    public boolean isSubstitute(char a, char b) {
+        int bb = bit(b);
+        return bb >= 0 && (substitutes(a) >>> bb & 1L) != 0;
+    }
+
+
+    /**
+     * Can digraph `xy` be substituted by `c`
+     */
+    public boolean isDigraphSubstitute(char x, char y, char c) {
+        int bc = bit(c);
+        return bc >= 0 && (digraphSubstitutes(x, y) >>> bc & 1L) != 0;
+    }
+
+
+    /**
+     * Bit mask of substitutes for `a`
+     */
+    public long substitutes(char a) {
+        int ba = bit(a);
+        return ba < 0 ? 0 : subs[ba];
+    }
+
+
+    /**
+     * Bit mask of chars which digraph `xy` can be substituted by
+     */
+    public long digraphSubstitutes(char x, char y) {
+        int i = index(x, y);
+        return i < 0 ? 0 : digraphs[i];
+    }
+
+
+    // ----------------- bit helpers ------------------ //
+
+    static final byte[] BITS  = new byte[128];
+    static final long[] MASKS = new long[128];   // 1 << bit, 0 if out of alphabet
+    static final char[] CHARS = new char[62];
+
+    static {
+        Arrays.fill(BITS, (byte) -1);
+        int n = 0;
+        for (char c = '0'; c <= '9'; c++)
+            BITS[CHARS[n] = c] = (byte) n++;
+        for (char c = 'a'; c <= 'z'; c++)
+            BITS[CHARS[n] = c] = (byte) n++;
+        for (char c = 'A'; c <= 'Z'; c++)
+            BITS[CHARS[n] = c] = (byte) n++;
+        for (int c = 0; c < n; c++)
+            MASKS[CHARS[c]] = 1L << c;
+    }
+
+
+    /**
+     * Bit for a char, or -1 if char is out of [0-9a-zA-Z]
+     */
+    public static int bit(char c) {
+        return c < 128 ? BITS[c] : -1;
+    }
+
+
+    /**
+     * Bit mask of chars in a set, 0 for null
+     */
+    static long mask(LetterSet s) {
+        long m = 0;
+        if (s != null) {
+            for (char c : s.chars().toCharArray())
+                m |= 1L << bit(c);
+        }
+        return m;
+    }
+
+
+    /**
+     * Index of digraph `xy`, or -1 if any char is out of alphabet
+     */
+    static int index(char x, char y) {
+        int bx = bit(x), by = bit(y);
+        return (bx | by) < 0 ? -1 : bx << 6 | by;
+    }
+
+}
@@ -0,0 +1,109 @@
+package ru.iitdgroup.lingutil.search;
+
+import java.util.Arrays;
+
+
+/**
+ * Index of q-grams of a {@link FoneticText}, where chars are replaced
+ * by their phonetic classes: connected components of substitutions
+ * of {@link PhoneticTable}, so substitutions never change a q-gram.
+ * All chars out of the table alphabet fall into one class.
+ * <p>
+ * Used as a filter by {@link FoneticSearch}: if a pattern is split
+ * into more pieces of length `q` than a match within max cost can break
+ * by non-substitution edits, at least one piece occurs in the text intact,
+ * so matches can only be found near occurrences of pieces.
+ *
+ * @author Salauyou
+ */
+final class QGramIndex {
+
+    static final int MAX_Q = 5;          // 6 bits per class, code fits int
+
+    final int    q;
+    final long[] entries;                // code << 32 | position, sorted
+
+
+    QGramIndex(FoneticText text, int q) {
+        this.q = q;
+        int n = Math.max(0, text.length() - q + 1);
+        long[] es = new long[n];
+        char[] cs = text.chars;
+        int mask = (1 << 6 * q) - 1;
+        int code = 0;
+        for (int j = 0; j < text.length(); j++) {
+            code = (code << 6 | classOf(cs[j])) & mask;
+            if (j >= q - 1)
+                es[j - q + 1] = (long) code << 32 | (j - q + 1);
+        }
+        Arrays.sort(es);
+        entries = es;
+    }
+
+
+    /**
+     * Code of q-gram of pattern starting at `from`
+     */
+    int code(FoneticPattern p, int from) {
+        int code = 0;
+        for (int i = from; i < from + q; i++)
+            code = code << 6 | classOf(p.chars[i]);
+        return code;
+    }
+
+
+    /**
+     * Index of the first entry with given code, or
+     * insertion point if there is no such entry
+     */
+    int first(int code) {
+        int i = Arrays.binarySearch(entries, (long) code << 32);
+        return i < 0 ? -i - 1 : i;
+    }
+
+
+    static int codeAt(long entry) {
+        return (int) (entry >>> 32);
+    }
+
+
+    static int positionAt(long entry) {
+        return (int) entry;
+    }
+
+
+
+    // ------------- phonetic classes --------------- //
+
+    static final byte[] CLASSES = new byte[PhoneticTable.SIZE];
+    static final int    OTHER;
+
+    static {
+        // union substitutes into components
+        PhoneticTable tb = FoneticSearch.TABLE;
+        Arrays.fill(CLASSES, (byte) -1);
+        int n = 0;
+        for (char c : PhoneticTable.CHARS) {
+            int b = PhoneticTable.bit(c);
+            if (CLASSES[b] >= 0)
+                continue;
+            long comp = 1L << b, prev = 0;
+            while (comp != prev) {
+                prev = comp;
+                for (long r = comp; r != 0; r &= r - 1)
+                    comp |= tb.subs[Long.numberOfTrailingZeros(r)];
+            }
+            for (long r = comp; r != 0; r &= r - 1)
+                CLASSES[Long.numberOfTrailingZeros(r)] = (byte) n;
+            n++;
+        }
+        OTHER = n;
+    }
+
+
+    static int classOf(char c) {
+        int b = PhoneticTable.bit(c);
+        return b < 0 ? OTHER : CLASSES[b];
+    }
+
+}
@@ -0,0 +1,205 @@
+package ru.iitdgroup.lingutil.search;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import ru.iitdgroup.lingutil.match.ScoredMatch;
+
+
+/**
+ * Searches for occurrences of a pattern by {@link FoneticSearch} in
+ * a text coming by pieces, e. g. from a {@link Reader}:
+ * <blockquote><pre>
+ * new StreamingFoneticSearch(fs, "PITSA", 2.5, matches::add)
+ *     .search(new FileReader(archive));
+ * </pre></blockquote>
+ * or pushed by {@link #append(CharSequence)} and closed by
+ * {@link #finish()}. Only a sliding window of text is kept: the last
+ * block of chars (see {@link #setBlockLength(int)}) and a margin before
+ * it, wide enough to hold any match of the pattern. So memory does not
+ * depend on text length.
+ * <p>
+ * Matches have absolute offsets in the whole text and are the same
+ * as {@link FoneticSearch#findOccurrences(CharSequence, CharSequence,
+ * double)} would find in it. They are sent sorted by start position
+ * as soon as they are final, i. e. no longer match from the same start
+ * can be found in the rest of text, which is at most a block and
+ * a margin behind the last appended char. As offsets of
+ * {@link ScoredMatch} are ints, a stream may hold up to
+ * {@link Integer#MAX_VALUE} chars; longer inputs (e. g. archives)
+ * should be searched by entries, with a new instance per entry.
+ * <p>
+ * Not thread-safe.
+ *
+ * @author Salauyou
+ */
+public class StreamingFoneticSearch {
+
+    final FoneticSearch         search;
+    final FoneticPattern        pattern;
+    final double                maxCost;
+    final Consumer<ScoredMatch> matchConsumer;
+
+    // a match of m-char pattern spans at most 2m chars,
+    // and costs at its end depend on at most 2m chars before it
+    final int reach;
+    int       block = 1 << 14;
+
+    char[]            buf;                          // chars from `base`, `n` of them
+    long              base    = 0;
+    int               n       = 0;
+    long              done    = 0;                  // matches ending before it are found
+    List<ScoredMatch> pending = new ArrayList<>();  // found, not sent yet, by start
+    int               found   = 0;
+    FoneticWorkspace  ws;
+    FoneticText       window  = new FoneticText();
+
+
+    public StreamingFoneticSearch(FoneticSearch search, CharSequence pattern, double maxCost,
+                                  Consumer<ScoredMatch> matchConsumer) {
+        this(search, FoneticSearch.compile(pattern, search.config().folding), maxCost, matchConsumer);
+    }
+
+
+    public StreamingFoneticSearch(FoneticSearch search, FoneticPattern pattern, double maxCost,
+                                  Consumer<ScoredMatch> matchConsumer) {
+        this.search        = search;
+        this.pattern       = pattern;
+        this.maxCost       = maxCost;
+        this.matchConsumer = matchConsumer;
+        this.reach         = 2 * pattern.length() + 4;
+    }
+
+
+    /**
+     * Number of chars searched at once, 16K by default. Larger
+     * blocks take fewer passes over margins, smaller ones keep less
+     * text and send matches sooner. Must be set before the first
+     * char is appended
+     */
+    public StreamingFoneticSearch setBlockLength(int chars) {
+        if (buf != null)
+            throw new IllegalStateException("Search already started");
+        if (chars < 1)
+            throw new IllegalArgumentException("Block length must be positive");
+        this.block = chars;
+        return this;
+    }
+
+
+    /**
+     * Number of chars appended so far
+     */
+    public long position() {
+        return base + n;
+    }
+
+
+    /**
+     * Appends `chars` to the text (for a {@link CharBuffer}, its
+     * remaining chars, leaving its position unchanged), sending
+     * matches which became final
+     */
+    public StreamingFoneticSearch append(CharSequence chars) {
+        if (buf == null) {
+            buf = new char[reach + block];
+            ws  = new FoneticWorkspace(reach + block);
+        }
+        int len = chars.length();
+        if (base + n + len > Integer.MAX_VALUE)
+            throw new IllegalStateException("Match offsets would exceed int range");
+        for (int k = 0; k < len; ) {
+            int r = Math.min(len - k, buf.length - n);
+            for (int e = k + r; k < e; )
+                buf[n++] = chars.charAt(k++);
+            if (n == buf.length)
+                process(base + n);
+        }
+        return this;
+    }
+
+
+    /**
+     * Searches the rest of text and sends remaining matches.
+     * Returns the number of matches found in the whole text
+     */
+    public int finish() {
+        if (done < base + n)
+            process(base + n);
+        for (ScoredMatch m : pending)
+            send(m);
+        pending.clear();
+        return found;
+    }
+
+
+    /**
+     * Reads `reader` to the end, appending all its chars, and finishes
+     * search. Returns the number of matches found. The reader is not closed
+     */
+    public int search(Reader reader) throws IOException {
+        CharBuffer cb = CharBuffer.allocate(Math.max(block, 1024));
+        while (reader.read(cb) >= 0) {
+            cb.flip();
+            append(cb);
+            cb.clear();
+        }
+        return finish();
+    }
+
+
+
+    /**
+     * Finds matches ending in `done..to`, searching them in buffered
+     * chars with margin before `done`, then drops chars not needed
+     * by further search
+     */
+    private void process(long to) {
+        long from = done;
+        int  cut  = (int) (to - base);
+        CharBuffer        cb = CharBuffer.wrap(buf, 0, cut);
+        List<ScoredMatch> ms = search.findOccurrences(window.set(cb, search.config().folding),
+                                                      pattern, maxCost, ws);
+        List<ScoredMatch> res = new ArrayList<>(pending.size() + ms.size());
+        int z = 0;
+        for (ScoredMatch m : ms) {
+            // matches ending in margin are already found, 
+            // and at the first block there is no margin
+            if (from > 0 && m.end + base <= from)
+                continue;
+
+            // pending ones with the same start end before this one,
+            // and sequential search keeps the farther end
+            while (z < pending.size() && pending.get(z).start < m.start + base)
+                res.add(pending.get(z++));
+            if (z < pending.size() && pending.get(z).start == m.start + base)
+                z++;
+            res.add(new ScoredMatch((int) (m.start + base), (int) (m.end + base), m.score));
+        }
+        while (z < pending.size())
+            res.add(pending.get(z++));
+        done = to;
+
+        // matches ending farther start after `done - reach`
+        int sent = 0;
+        while (sent < res.size() && res.get(sent).start < done - reach)
+            send(res.get(sent++));
+        pending = new ArrayList<>(res.subList(sent, res.size()));
+
+        long nb = Math.max(0, done - reach);
+        System.arraycopy(buf, (int) (nb - base), buf, 0, (int) (base + n - nb));
+        n   -= (int) (nb - base);
+        base = nb;
+    }
+
+
+    private void send(ScoredMatch m) {
+        matchConsumer.accept(m);
+        found++;
+    }
+
+}
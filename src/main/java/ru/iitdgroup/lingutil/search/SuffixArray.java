@@ -0,0 +1,109 @@
+package ru.iitdgroup.lingutil.search;
+
+import java.util.Arrays;
+
+
+/**
+ * Suffix array of a {@link FoneticText}: start positions of all its
+ * suffixes in lexicographic order of chars, a shorter suffix first
+ * if it is a prefix of a longer one. Suffixes sharing a prefix take
+ * a contiguous range, so the range of a longer prefix is found within
+ * the range of a shorter one by binary search on a single char, and
+ * the text is traversed as a trie of its substrings.
+ * <p>
+ * Used by {@link FoneticSearch} to find ends of possible matches by
+ * backtracking through this trie, without scanning the text.
+ *
+ * @author Salauyou
+ */
+final class SuffixArray {
+
+    final char[] chars;
+    final int    length;
+    final int[]  sa;
+
+
+    /**
+     * Builds array by prefix doubling: suffixes are ranked by first
+     * `k` chars, then by pairs of ranks of `k`-prefixes at `i` and
+     * `i + k`, sorted by counting sort, in O(n log n)
+     */
+    SuffixArray(FoneticText text) {
+        int n = text.length();
+        chars  = text.chars;
+        length = n;
+        sa     = new int[n];
+        if (n == 0)
+            return;
+        int[] rank = new int[n];
+        int[] tmp  = new int[n];
+        int[] cnt  = new int[Math.max(n, Character.MAX_VALUE + 1) + 1];
+        for (int i = 0; i < n; i++)
+            cnt[chars[i] + 1]++;
+        for (int c = 1; c < cnt.length; c++)
+            cnt[c] += cnt[c - 1];
+        for (int i = 0; i < n; i++)
+            sa[cnt[chars[i]]++] = i;
+        rank[sa[0]] = 0;
+        for (int z = 1; z < n; z++)
+            rank[sa[z]] = rank[sa[z - 1]] + (chars[sa[z]] != chars[sa[z - 1]] ? 1 : 0);
+
+        for (int k = 1; rank[sa[n - 1]] < n - 1; k <<= 1) {
+            // by second rank: suffixes shorter than `k` first
+            int t = 0;
+            for (int i = n - k; i < n; i++)
+                tmp[t++] = i;
+            for (int z = 0; z < n; z++) {
+                if (sa[z] >= k)
+                    tmp[t++] = sa[z] - k;
+            }
+            // then stable by first rank
+            Arrays.fill(cnt, 0, n + 1, 0);
+            for (int i = 0; i < n; i++)
+                cnt[rank[i] + 1]++;
+            for (int r = 1; r <= n; r++)
+                cnt[r] += cnt[r - 1];
+            for (int z = 0; z < n; z++)
+                sa[cnt[rank[tmp[z]]]++] = tmp[z];
+            tmp[sa[0]] = 0;
+            for (int z = 1; z < n; z++) {
+                int a = sa[z - 1], b = sa[z];
+                boolean same = rank[a] == rank[b] && a + k < n && b + k < n
+                               && rank[a + k] == rank[b + k];
+                tmp[b] = tmp[a] + (same ? 0 : 1);
+            }
+            int[] r = rank;
+            rank = tmp;
+            tmp  = r;
+        }
+    }
+
+
+    /**
+     * Char at `depth` of suffix at `z`, or -1 if suffix is shorter
+     */
+    int charAt(int z, int depth) {
+        int p = sa[z] + depth;
+        return p < length ? chars[p] : -1;
+    }
+
+
+    /**
+     * End (exclusive) of range of suffixes in `from..to`, which share
+     * prefix of length `depth` and have the same char at `depth` as
+     * suffix at `from`
+     */
+    int groupEnd(int from, int to, int depth) {
+        int c = charAt(from, depth);
+        int lo = from + 1, hi = to;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (charAt(mid, depth) == c)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+}
@@ -0,0 +1,81 @@
+package ru.iitdgroup.lingutil.text;
+
+import java.text.Normalizer;
+
+
+/**
+ * Char-to-char folding by a precomputed table: chars are turned
+ * to upper case, and Latin letters lose diacritics ("é" -> "E",
+ * "Ł" -> "L"). Latin ligatures and special letters, which would
+ * expand to several letters, are folded to a single letter they
+ * sound like ("ß" -> "S", "Æ" -> "E", "Œ" -> "E"), so that a folded
+ * text has the same length as the source, and offsets in it are
+ * offsets in the source. Letters out of Latin ranges (e. g. Cyrillic
+ * "Й" or "Ё") are only turned to upper case, as their diacritics
+ * make distinct letters.
+ *
+ * @author Salauyou
+ */
+public final class Folding {
+
+    // Latin-1 Supplement, Latin Extended-A and -B
+    private static final char[] TABLE = new char[0x250];
+
+    // Latin Extended Additional, e. g. Vietnamese "ễ" or "Ḑ"
+    private static final int    EXTENDED_FROM = 0x1E00;
+    private static final char[] EXTENDED      = new char[0x100];
+
+    // letters not decomposed by Unicode normalization
+    private static final String SPECIAL = "ßSÆEæEŒEœEØOøOĐDđDŁLłLÞTþTıIĦHħHŊNŋNĲIĳIſSẞS";
+
+    static {
+        fill(TABLE, 0);
+        fill(EXTENDED, EXTENDED_FROM);
+        for (int i = 0; i < SPECIAL.length(); i += 2) {
+            char c = SPECIAL.charAt(i);
+            if (c < TABLE.length)
+                TABLE[c] = SPECIAL.charAt(i + 1);
+            else
+                EXTENDED[c - EXTENDED_FROM] = SPECIAL.charAt(i + 1);
+        }
+    }
+
+
+    /**
+     * Fills `table` of chars from `from` by the first char 
+     * of their canonical decomposition, upper-cased
+     */
+    private static void fill(char[] table, int from) {
+        for (int i = 0; i < table.length; i++) {
+            String d = Normalizer.normalize(String.valueOf((char) (from + i)), Normalizer.Form.NFD);
+            table[i] = Character.toUpperCase(d.charAt(0));
+        }
+    }
+
+
+    /**
+     * Returns folded char
+     */
+    public static char fold(char c) {
+        if (c < TABLE.length)
+            return TABLE[c];
+        int e = c - EXTENDED_FROM;
+        return e >= 0 && e < EXTENDED.length ? EXTENDED[e] : Character.toUpperCase(c);
+    }
+
+
+    /**
+     * Returns folded copy of `s`, of the same length
+     */
+    public static String fold(CharSequence s) {
+        char[] cs = new char[s.length()];
+        for (int i = 0; i < cs.length; i++)
+            cs[i] = fold(s.charAt(i));
+        return new String(cs);
+    }
+
+
+    // prevent instantiation
+    private Folding() { }
+
+}
@@ -0,0 +1,104 @@
+package ru.iitdgroup.lingutil.text;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+
+/**
+ * {@link CharSequence} view of bytes in ISO-8859-1 (Latin-1) or ASCII,
+ * where every byte is a char. Chars are read directly from underlying
+ * {@link ByteBuffer}, so a file mapped by {@link #map(Path)} may be passed
+ * to search algorithms without decoding it into a `String`, and offsets
+ * of found matches are byte offsets in the file.
+ * <p>
+ * Instances are immutable as long as underlying bytes do not change,
+ * and may be shared between threads.
+ *
+ * @author Salauyou
+ * @Immutable
+ */
+public final class Latin1Text implements CharSequence {
+
+    final ByteBuffer bytes;     // read by absolute index
+    final int        offset;
+    final int        length;
+
+
+    private Latin1Text(ByteBuffer bytes, int offset, int length) {
+        this.bytes  = bytes;
+        this.offset = offset;
+        this.length = length;
+    }
+
+
+    /**
+     * View of remaining bytes of `bytes`, i. e. from its position
+     * to its limit. Position and limit may be changed afterwards
+     * without affecting the view
+     */
+    public static Latin1Text of(ByteBuffer bytes) {
+        return new Latin1Text(bytes.duplicate(), bytes.position(), bytes.remaining());
+    }
+
+
+    /**
+     * Maps `file` into memory read-only and returns view of its bytes.
+     * The mapping stays valid after this method returns, until the view
+     * is garbage-collected. Files larger than {@link Integer#MAX_VALUE}
+     * bytes cannot be mapped
+     */
+    public static Latin1Text map(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size > Integer.MAX_VALUE)
+                throw new IOException("File is too large to map: " + file);
+            return of(ch.map(MapMode.READ_ONLY, 0, size));
+        }
+    }
+
+
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length)
+            throw new IndexOutOfBoundsException();
+        return (char) (bytes.get(offset + index) & 0xFF);
+    }
+
+
+    /**
+     * View of the same bytes, not a copy
+     */
+    @Override
+    public Latin1Text subSequence(int start, int end) {
+        if (start < 0 || end > length || start > end)
+            throw new IndexOutOfBoundsException();
+        return new Latin1Text(bytes, offset + start, end - start);
+    }
+
+
+    /**
+     * Decodes all chars into a `String`
+     */
+    @Override
+    public String toString() {
+        byte[] bs = new byte[length];
+        ByteBuffer b = bytes.duplicate();
+        b.limit(offset + length);
+        b.position(offset);
+        b.get(bs);
+        return new String(bs, StandardCharsets.ISO_8859_1);
+    }
+
+}
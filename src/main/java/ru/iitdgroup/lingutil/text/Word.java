@@ -90,6 +90,19 @@ public final class Word implements CharSequence {
     }
     
     
+    /**
+     * Returns position in source where mapped substring starts,
+     * -1 for a word without source
+     */
+    public int start() { return start; }
+    
+    
+    /**
+     * Returns position in source where mapped substring ends (exclusive)
+     */
+    public int end() { return end; }
+    
+    
     /**
      * Word having null source and empty value, often helpful 
      * in join manipulations. For example, <tt>w = w.join(Word.EMPTY.as(" "))</tt> 
@@ -8,6 +8,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.function.IntPredicate;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -295,6 +296,29 @@ public final class Words {
     
     
     
+    /**
+     * Returns predicate telling if a word starts at given position of `text`
+     * by natural word boundaries, i. e. alphanumeric char there is not 
+     * preceded by another one. Useful for anchored search
+     */
+    static public IntPredicate wordStarts(CharSequence text) {
+        return j -> j < text.length() && Character.isLetterOrDigit(text.charAt(j))
+                    && (j == 0 || !Character.isLetterOrDigit(text.charAt(j - 1)));
+    }
+    
+    
+    /**
+     * Returns predicate telling if a word ends before given position of `text` 
+     * by natural word boundaries, i. e. alphanumeric char before it is not 
+     * followed by another one
+     */
+    static public IntPredicate wordEnds(CharSequence text) {
+        return j -> j > 0 && j <= text.length() && Character.isLetterOrDigit(text.charAt(j - 1))
+                    && (j == text.length() || !Character.isLetterOrDigit(text.charAt(j)));
+    }
+    
+    
+    
     private static List<int[]> splitIntoWordPositions(String source, boolean allowMixed, char[] extra) {
         Arrays.sort(extra);
         List<int[]> res = new ArrayList<>();
@@ -0,0 +1,79 @@
+package lingutil;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import lingutil.TimeMeasurer.Task;
+import ru.iitdgroup.lingutil.search.FoneticSearch;
+import ru.iitdgroup.lingutil.search.FoneticText;
+
+
+
+public class DenseRowThroughput {
+
+    static final String[] WORDS = { "PITSA", "MOUSTAPHA", "OGRANITCHENNOJ", "KHACHATURYAN" };
+
+    FoneticText text;
+
+    @Before
+    public void before() {
+        Random rnd = new Random(42);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZ     ";
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < 1_000_000)
+            sb.append(alphabet.charAt(rnd.nextInt(alphabet.length())));
+        text = FoneticText.of(sb);
+    }
+
+
+
+    @Test
+    public void testThroughput() {
+        for (double maxCost : new double[] { 1.0, 2.5 }) {
+            for (double quantum : new double[] { 0, 0.5 }) {
+                System.out.format("max cost %s, quantum %s\n", maxCost, quantum);
+                Rows sparse = new Rows("  worklist", new FoneticSearch().setDenseRows(false), maxCost, quantum);
+                Rows dense  = new Rows("dense rows", new FoneticSearch(), maxCost, quantum);
+                TimeMeasurer.measureTime(5, sparse, dense);
+                assertEquals(sparse.found, dense.found);
+                System.out.println();
+            }
+        }
+    }
+
+
+
+    class Rows implements Task {
+
+        final String        name;
+        final FoneticSearch fs;
+        final double        maxCost;
+        int found;
+
+        Rows(String name, FoneticSearch fs, double maxCost, double quantum) {
+            this.name    = name;
+            this.fs      = fs.setCostQuantum(quantum);
+            this.maxCost = maxCost;
+        }
+
+        @Override
+        public void run() {
+            int n = 0;
+            for (String w : WORDS)
+                n += fs.findOccurrences(text, w, maxCost).size();
+            found = n;
+        }
+
+        @Override
+        public void displayTime(long millis) {
+            double mb = text.length() / 1e6;
+            System.out.format("%s: %s matches, %s ms, %.1f patterns x MB/s\n", name, found, millis,
+                              WORDS.length * mb * 1000 / Math.max(millis, 1));
+        }
+    }
+
+}
@@ -0,0 +1,132 @@
+package lingutil;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import lingutil.TimeMeasurer.Task;
+import ru.iitdgroup.lingutil.search.FoneticPattern;
+import ru.iitdgroup.lingutil.search.FoneticPatternSet;
+import ru.iitdgroup.lingutil.search.FoneticSearch;
+import ru.iitdgroup.lingutil.search.FoneticText;
+import ru.iitdgroup.lingutil.search.ParallelFoneticSearch;
+
+
+
+public class MultiPatternThroughput {
+
+    static final int    PATTERNS = 500;
+    static final double MAX_COST = 1.0;
+
+    FoneticSearch     fs = new FoneticSearch().setBitParallelLength(64);
+    FoneticText       text;
+    List<String>      words;
+    FoneticPatternSet set;
+
+    @Before
+    public void before() {
+        Random rnd = new Random(42);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZ     ";
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < 200_000)
+            sb.append(alphabet.charAt(rnd.nextInt(alphabet.length())));
+        words = new ArrayList<>();
+        for (int i = 0; i < PATTERNS; i++) {
+            StringBuilder w = new StringBuilder();
+            for (int k = 6 + rnd.nextInt(10); k > 0; k--)
+                w.append((char) ('A' + rnd.nextInt(26)));
+            words.add(w.toString());
+            if (i % 10 == 0)
+                sb.insert(rnd.nextInt(sb.length()), " " + w + " ");
+        }
+        text = FoneticText.of(sb);
+        set  = FoneticSearch.compile(words);
+    }
+
+
+
+    @Test
+    public void testThroughput() {
+        OnePerPass one    = new OnePerPass("pattern per pass");
+        SinglePass single = new SinglePass("     single pass");
+        Parallel parallel = new Parallel(String.format("%7s threads", ForkJoinPool.commonPool().getParallelism()));
+        TimeMeasurer.measureTime(3, one, single, parallel);
+        assertEquals(one.found, single.found);
+        assertEquals(one.found, parallel.found);
+        assertTrue(single.found >= PATTERNS / 10);
+        System.out.println();
+    }
+
+
+
+    abstract class Throughput implements Task {
+
+        final String name;
+        int found;
+
+        Throughput(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void displayTime(long millis) {
+            double mb = text.length() / 1e6;
+            System.out.format("%s: %s matches, %s ms, %.1f patterns x MB/s\n", name, found, millis,
+                              PATTERNS * mb * 1000 / Math.max(millis, 1));
+        }
+    }
+
+
+    class OnePerPass extends Throughput {
+
+        OnePerPass(String name) {
+            super(name);
+        }
+
+        @Override
+        public void run() {
+            int n = 0;
+            for (int i = 0; i < set.size(); i++) {
+                FoneticPattern p = set.get(i);
+                n += fs.findOccurrences(text, p, MAX_COST).size();
+            }
+            found = n;
+        }
+    }
+
+
+    class SinglePass extends Throughput {
+
+        SinglePass(String name) {
+            super(name);
+        }
+
+        @Override
+        public void run() {
+            found = fs.search(text, set, MAX_COST, (m, i) -> { });
+        }
+    }
+
+
+
+    class Parallel extends Throughput {
+
+        final ParallelFoneticSearch ps = new ParallelFoneticSearch(fs);
+
+        Parallel(String name) {
+            super(name);
+        }
+
+        @Override
+        public void run() {
+            found = ps.search(text, set, MAX_COST, (m, i) -> { });
+        }
+    }
+
+}
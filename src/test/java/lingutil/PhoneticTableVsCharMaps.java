@@ -0,0 +1,117 @@
+package lingutil;
+
+import static org.junit.Assert.*;
+import static ru.iitdgroup.lingutil.collect.LetterSet.of;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import lingutil.TimeMeasurer.Task;
+import ru.iitdgroup.lingutil.collect.CharMap;
+import ru.iitdgroup.lingutil.collect.CharTable;
+import ru.iitdgroup.lingutil.collect.LetterSet;
+import ru.iitdgroup.lingutil.search.PhoneticTable;
+
+
+
+public class PhoneticTableVsCharMaps {
+
+    CharMap<LetterSet>   subs;
+    CharTable<LetterSet> digraphs;
+    PhoneticTable        table;
+
+    String text;
+    String pattern;
+
+    @Before
+    public void before() {
+        subs = CharMap.<LetterSet>create()
+                   .put('A', of('O')).put('B', of('P')).put('C', of("KQ"))
+                   .put('D', of('T')).put('E', of('I')).put('G', of("HJ"))
+                   .put('I', of("JY")).put('K', of("CQ")).put('S', of('Z'))
+                   .put('U', of("AO")).put('W', of("VU")).put('Y', of("IJ"))
+                   .put('0', of('O')).put('1', of("IL")).put('3', of('E'))
+                   .makeImmutable();
+        digraphs = new CharTable<LetterSet>()
+                   .put("CH", of("C4")).put("CK", of("KC")).put("EE", of("IY"))
+                   .put("KS", of('X')).put("PH", of('F')).put("SH", of('S'))
+                   .put("TH", of("TZS")).put("TS", of('C')).put("ZZ", of("CZ"))
+                   .makeImmutable();
+        table = PhoneticTable.of(subs, digraphs);
+        Random rnd = new Random(42);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1_000_000; i++)
+            sb.append((char) ('A' + rnd.nextInt(26)));
+        text = sb.toString();
+        pattern = "KHACHATURYANPHILHARMONIC";
+    }
+
+
+
+    @Test
+    public void testLookup() {
+        TestLookup maps  = new TestLookup("CharMap/CharTable", this::viaMaps);
+        TestLookup array = new TestLookup("    PhoneticTable", this::viaTable);
+        TimeMeasurer.measureTime(5, maps, array);
+        assertEquals(maps.hits, array.hits);
+        System.out.println();
+    }
+
+
+
+    // one "cell": pattern char `a` after `pa` vs. text char `b` after `pb`
+
+    boolean viaMaps(char pa, char a, char pb, char b) {
+        LetterSet sa = subs.get(a), sb = subs.get(b);
+        LetterSet la = digraphs.get(pa, a), lb = digraphs.get(pb, b);
+        return (sa != null && sa.contains(b)) || (sb != null && sb.contains(a))
+            || (la != null && la.contains(b)) || (lb != null && lb.contains(a));
+    }
+
+
+    boolean viaTable(char pa, char a, char pb, char b) {
+        return table.isSubstitute(a, b)
+            || table.isDigraphSubstitute(pa, a, b) || table.isDigraphSubstitute(pb, b, a);
+    }
+
+
+
+    interface Cell {
+        boolean test(char pa, char a, char pb, char b);
+    }
+
+
+    class TestLookup implements Task {
+
+        final String name;
+        final Cell   cell;
+        long hits;
+
+        TestLookup(String name, Cell cell) {
+            this.name = name;
+            this.cell = cell;
+        }
+
+        @Override
+        public void run() {
+            long h = 0;
+            for (int i = 1; i < pattern.length(); i++) {
+                char pa = pattern.charAt(i - 1), a = pattern.charAt(i);
+                for (int j = 1; j < text.length(); j++) {
+                    if (cell.test(pa, a, text.charAt(j - 1), text.charAt(j)))
+                        h++;
+                }
+            }
+            hits = h;
+        }
+
+        @Override
+        public void displayTime(long millis) {
+            System.out.format("%s: %s cells, %s ms\n", name,
+                              (long) (pattern.length() - 1) * (text.length() - 1), millis);
+        }
+    }
+
+}
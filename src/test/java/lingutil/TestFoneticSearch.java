@@ -1,13 +1,47 @@
 package lingutil;
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.IntPredicate;
 
 import org.junit.Test;
 
 
+import ru.iitdgroup.lingutil.collect.SimpleTrieMap;
+import ru.iitdgroup.lingutil.collect.TrieMap;
 import ru.iitdgroup.lingutil.match.ScoredMatch;
+import ru.iitdgroup.lingutil.search.DeletionIndex;
+import ru.iitdgroup.lingutil.search.FoneticPattern;
+import ru.iitdgroup.lingutil.search.FoneticPatternSet;
 import ru.iitdgroup.lingutil.search.FoneticSearch;
+import ru.iitdgroup.lingutil.search.FoneticText;
+import ru.iitdgroup.lingutil.search.FoneticWorkspace;
+import ru.iitdgroup.lingutil.search.LcsSearch;
+import ru.iitdgroup.lingutil.search.MappedFileSearch;
+import ru.iitdgroup.lingutil.search.ParallelFoneticSearch;
+import ru.iitdgroup.lingutil.search.PhoneticKeyIndex;
+import ru.iitdgroup.lingutil.search.StreamingFoneticSearch;
+import ru.iitdgroup.lingutil.text.Folding;
+import ru.iitdgroup.lingutil.text.Latin1Text;
+import ru.iitdgroup.lingutil.text.Word;
+import ru.iitdgroup.lingutil.text.Words;
 
 
 public class TestFoneticSearch {
@@ -35,4 +69,864 @@ public class TestFoneticSearch {
     }
     
     
+    @Test
+    public void testWorkspace() {
+        FoneticSearch fs = new FoneticSearch();
+        FoneticWorkspace ws = new FoneticWorkspace(16);
+        
+        // the same workspace must serve texts of different lengths,
+        // growing past initial capacity
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < 10_000)
+            sb.append("OBSHESTVOSORGONICHENOYOTVETSTVENNOSTYU");
+        String[] inputs = { "PIZZA", sb.toString(), "MUSTAFA", "OBSHESTVOSORGONICHENOYOTVETSTVENNOSTYU" };
+        String[] words  = { "PITSA", "OGRANITCHENNOJ", "MOUSTAPHA", "OGRANITCHENNOJ" };
+        for (int i = 0; i < inputs.length; i++) {
+            List<ScoredMatch> expected = fs.findOccurrences(inputs[i], words[i], 10);
+            List<ScoredMatch> actual   = fs.findOccurrences(inputs[i], words[i], 10, ws);
+            assertFalse(actual.isEmpty());
+            assertEquals(expected.toString(), actual.toString());
+        }
+        assertTrue(ws.capacity() >= 10_000);
+    }
+    
+    
+    @Test
+    public void testDictionarySearch() {
+        FoneticSearch fs = new FoneticSearch();
+        String input = "OBSHESTVOSORGONICHENOYOTVETSTVENNOSTYU PIZZA MUSTAFA";
+        List<String> words = Arrays.asList("OGRANITCHENNOJ", "OGRANICHENIE", "OGOROD", 
+                                           "PITSA", "PIT", "PITS", "MOUSTAPHA", "MUSTANG", "X");
+        TrieMap<String> dict = new SimpleTrieMap<>();
+        for (String w : words)
+            dict.put(w, w);
+        
+        // the same as searching each word separately
+        Map<String, List<ScoredMatch>> expected = new TreeMap<>();
+        int count = 0;
+        for (String w : words) {
+            List<ScoredMatch> ms = fs.findOccurrences(input, w, 2.0);
+            count += ms.size();
+            if (!ms.isEmpty())
+                expected.put(w, ms);
+        }
+        Map<String, List<ScoredMatch>> actual = new TreeMap<>();
+        assertEquals(count, fs.search(input, dict, 2.0, 
+                (m, w) -> actual.computeIfAbsent(w, k -> new ArrayList<>()).add(m)));
+        assertEquals(expected.toString(), actual.toString());
+        assertTrue(actual.containsKey("PITSA"));
+        assertTrue(actual.containsKey("MOUSTAPHA"));
+    }
+    
+    
+    @Test
+    public void testCompiledPattern() {
+        FoneticSearch fs = new FoneticSearch();
+        String[] inputs = { "PIZZA", "MUSTAFA", "OBSHESTVOSORGONICHENOYOTVETSTVENNOSTYU", "BELAYA BEREZA" };
+        String[] words  = { "PITSA", "MOUSTAPHA", "OGRANITCHENNOJ", "BEREZKA" };
+        for (String w : words) {
+            FoneticPattern p = FoneticSearch.compile(w);
+            assertEquals(w, p.toString());
+            assertEquals(w.length(), p.length());
+            
+            // compiled pattern is reused for every input
+            for (String in : inputs)
+                assertEquals(fs.findOccurrences(in, w, 3).toString(), 
+                             fs.findOccurrences(in, p, 3).toString());
+        }
+    }
+    
+    
+    @Test
+    public void testPreparedText() {
+        FoneticSearch fs = new FoneticSearch();
+        String[] inputs = { "PIZZA", "MUSTAFA", "OBSHESTVOSORGONICHENOYOTVETSTVENNOSTYU", "BELAYA BEREZA" };
+        String[] words  = { "PITSA", "MOUSTAPHA", "OGRANITCHENNOJ", "BEREZKA" };
+        FoneticText text = new FoneticText();
+        for (String in : inputs) {
+            // the same instance is refilled for every input
+            assertEquals(in, text.set(in).toString());
+            assertEquals(in.length(), text.length());
+            for (String w : words)
+                assertEquals(fs.findOccurrences(in, w, 3).toString(), 
+                             fs.findOccurrences(text, w, 3).toString());
+        }
+    }
+    
+    
+    @Test
+    public void testBitParallel() {
+        FoneticSearch fs = new FoneticSearch();
+        FoneticSearch bp = new FoneticSearch().setBitParallelLength(64);
+        StringBuilder sb = new StringBuilder(randomText(new Random(7), "AOUIEPHFSZTCKDJ ", 20_000));
+        sb.append("OBSHESTVOSORGONICHENOYOTVETSTVENNOSTYU MUSTAFA PIZZA");
+        FoneticText text = FoneticText.of(sb);
+        String[] words = { "PITSA", "MOUSTAPHA", "OGRANITCHENNOJ", "SHIPKA", "FIZZ", "DJEK", "OK" };
+        for (String w : words) {
+            for (double max = 0; max <= 3.0; max += 0.5) {
+                List<ScoredMatch> expected = fs.findOccurrences(text, w, max);
+                assertEquals(expected.toString(), bp.findOccurrences(text, w, max).toString());
+            }
+        }
+        assertFalse(bp.findOccurrences(text, "MOUSTAPHA", 1.5).isEmpty());
+        
+        // costs, which are not multiples of the least one
+        fs.setGapCost(0.7).setReplaceCost(1.3).setSubstitutionCost(0.4);
+        bp.setGapCost(0.7).setReplaceCost(1.3).setSubstitutionCost(0.4);
+        for (String w : words)
+            assertEquals(fs.findOccurrences(text, w, 2.2).toString(), 
+                         bp.findOccurrences(text, w, 2.2).toString());
+    }
+    
+    
+    @Test
+    public void testFixedPointCosts() {
+        FoneticSearch fs = new FoneticSearch();
+        FoneticSearch fx = new FoneticSearch().setCostQuantum(0.5);
+        FoneticWorkspace ws = new FoneticWorkspace(16);
+        String[] inputs = { "PIZZA", "MUSTAFA", "OBSHESTVOSORGONICHENOYOTVETSTVENNOSTYU", "BELAYA BEREZA" };
+        String[] words  = { "PITSA", "MOUSTAPHA", "OGRANITCHENNOJ", "BEREZKA" };
+        for (String in : inputs) {
+            for (String w : words) {
+                // the same workspace serves both cost models by turns
+                for (double max = 0; max <= 4; max += 0.5)
+                    assertEquals(fs.findOccurrences(in, w, max, ws).toString(), 
+                                 fx.findOccurrences(in, w, max, ws).toString());
+            }
+        }
+    }
+    
+    
+    @Test
+    public void testQGramFilter() {
+        FoneticSearch fs = new FoneticSearch();
+        FoneticSearch qf = new FoneticSearch().setQGramFilter(true);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZ    ";
+        StringBuilder sb = new StringBuilder(randomText(new Random(11), alphabet, 50_000));
+        sb.insert(20_000, " OBSHESTVO S OGRONICHENOY OTVETSTVENNOSTYU ");
+        FoneticText text = FoneticText.of(sb);
+        String[] words = { "OGRANITCHENNOJ", "OTVETSTVENNOSTJU", "OBSCHESTVO", "KHACHATURYAN" };
+        for (String w : words) {
+            for (double max = 0; max <= 2.0; max += 0.5)
+                assertEquals(fs.findOccurrences(text, w, max).toString(), 
+                             qf.findOccurrences(text, w, max).toString());
+        }
+        assertFalse(qf.findOccurrences(text, "OTVETSTVENNOSTJU", 1.0).isEmpty());
+        assertTrue(qf.getFilterStats().positions() > 0);
+        
+        // most of text cannot hold a long pattern
+        qf.getFilterStats().reset();
+        assertFalse(qf.findOccurrences(text, "OTVETSTVENNOSTJU", 0.5).isEmpty());
+        assertTrue(qf.getFilterStats().skippedFraction() > 0.9);
+    }
+    
+    
+    @Test
+    public void testPatternSet() {
+        FoneticSearch fs = new FoneticSearch();
+        StringBuilder sb = new StringBuilder(randomText(new Random(13), "AOUIEPHFSZTCKDJ ", 20_000));
+        sb.append("OBSHESTVOSORGONICHENOYOTVETSTVENNOSTYU MUSTAFA PIZZA");
+        FoneticText text = FoneticText.of(sb);
+        List<String> words = Arrays.asList("PITSA", "MOUSTAPHA", "OGRANITCHENNOJ", "SHIPKA", 
+                                           "FIZZ", "DJEK", "OK", "X", "PITSA");
+        FoneticPatternSet ps = FoneticSearch.compile(words);
+        assertEquals(words.size(), ps.size());
+        for (double max = 0; max <= 3.0; max += 0.5) {
+            // the same as searching each pattern separately
+            StringBuilder expected = new StringBuilder(), actual = new StringBuilder();
+            int count = 0;
+            for (int i = 0; i < words.size(); i++) {
+                for (ScoredMatch m : fs.findOccurrences(text, words.get(i), max)) {
+                    expected.append(i).append(m);
+                    count++;
+                }
+            }
+            assertEquals(count, fs.search(text, ps, max, (m, i) -> actual.append(i).append(m)));
+            assertEquals(expected.toString(), actual.toString());
+        }
+    }
+    
+    
+    @Test
+    public void testParallelSearch() {
+        FoneticSearch fs = new FoneticSearch().setBitParallelLength(64);
+        Random rnd = new Random(17);
+        String alphabet = "AOUIEPHFSZTCKDJ ";
+        StringBuilder sb = new StringBuilder(randomText(rnd, alphabet, 20_000));
+        List<String> words = new ArrayList<>();
+        TrieMap<Integer> dict = new SimpleTrieMap<>();
+        for (int i = 0; i < 200; i++) {
+            StringBuilder w = new StringBuilder();
+            for (int k = 2 + rnd.nextInt(8); k > 0; k--)
+                w.append(alphabet.charAt(rnd.nextInt(alphabet.length() - 1)));
+            words.add(w.toString());
+            dict.put(w.toString(), i);
+        }
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            ParallelFoneticSearch ps = new ParallelFoneticSearch(fs, pool).setGrain(3);
+            List<List<ScoredMatch>> res = ps.findOccurrences(sb, words, 1.5);
+            assertEquals(words.size(), res.size());
+            for (int i = 0; i < words.size(); i++)
+                assertEquals(fs.findOccurrences(sb, words.get(i), 1.5).toString(), res.get(i).toString());
+            
+            // deterministic order regardless of scheduling
+            FoneticPatternSet set = FoneticSearch.compile(words);
+            StringBuilder expected = new StringBuilder(), actual = new StringBuilder();
+            fs.search(sb, set, 1.5, (m, i) -> expected.append(i).append(m));
+            ps.search(sb, set, 1.5, (m, i) -> actual.append(i).append(m));
+            assertEquals(expected.toString(), actual.toString());
+            
+            StringBuilder byKey = new StringBuilder();
+            for (String key : dict.keySet())
+                fs.findOccurrences(sb, key, 1.5).forEach(m -> byKey.append(dict.get(key)).append(m));
+            StringBuilder parallel = new StringBuilder();
+            ps.search(sb, dict, 1.5, (m, v) -> parallel.append(v).append(m));
+            assertEquals(byKey.toString(), parallel.toString());
+        } finally {
+            pool.shutdown();
+        }
+    }
+    
+    
+    @Test
+    public void testChunkedSearch() {
+        FoneticText text = FoneticText.of(randomText(new Random(19), "AOUIEPHFSZTCKDJ ", 30_000));
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (FoneticSearch fs : Arrays.asList(new FoneticSearch(), 
+                                                  new FoneticSearch().setBitParallelLength(64),
+                                                  new FoneticSearch().setCostQuantum(0.5))) {
+                for (int chunk : new int[] { 1, 50, 777, 100_000 }) {
+                    ParallelFoneticSearch ps = new ParallelFoneticSearch(fs, pool).setChunkLength(chunk);
+                    // a 1-char pattern may match by gap at end 0
+                    for (String word : Arrays.asList("PITSA", "OGRANITCHENNOJ", "DJEK", "SHIPKA", "P")) {
+                        // matches on seams are the same as of sequential run
+                        for (double max = 0.5; max <= 2.5; max += 1.0)
+                            assertEquals(fs.findOccurrences(text, word, max).toString(),
+                                         ps.findOccurrences(text, word, max).toString());
+                    }
+                }
+            }
+            assertTrue(new ParallelFoneticSearch(new FoneticSearch(), pool)
+                       .findOccurrences("", "PITSA", 1.0).isEmpty());
+        } finally {
+            pool.shutdown();
+        }
+    }
+    
+    
+    @Test
+    public void testBestMatches() {
+        String source = randomText(new Random(23), "AOUIEPHFSZTCKDJ ", 20_000);
+        FoneticText text = FoneticText.of(source);
+        for (FoneticSearch fs : Arrays.asList(new FoneticSearch(), new FoneticSearch().setCostQuantum(0.5))) {
+            for (String word : Arrays.asList("PITSA", "OGRANITCHENNOJ", "DJEK")) {
+                // least cost match of every start, found at max cost equal to its cost
+                Map<Integer, ScoredMatch> best = new HashMap<>();
+                for (double max = 0; max <= 3.0; max += 0.5) {
+                    for (ScoredMatch m : fs.findOccurrences(text, word, max))
+                        best.merge(m.start, m, (m1, m2) -> m2.score < m1.score ? m2 : m1);
+                }
+                List<ScoredMatch> all = new ArrayList<>(best.values());
+                all.sort(Comparator.<ScoredMatch>comparingDouble(m -> m.score).thenComparingInt(m -> m.start));
+                for (int k : new int[] { 1, 10, 100 }) {
+                    assertEquals(all.subList(0, Math.min(k, all.size())).toString(),
+                                 fs.findBest(text, FoneticSearch.compile(word), k, 3.0, new FoneticWorkspace()).toString());
+                }
+                // without max cost, the same as long as 10 best ones cost less
+                if (all.size() >= 10)
+                    assertEquals(all.subList(0, 10).toString(), fs.findBest(source, word, 10).toString());
+            }
+        }
+        assertTrue(new FoneticSearch().findBest("PIZZA", "PITSA", 0).isEmpty());
+        ScoredMatch m = new FoneticSearch().findBest("PIZZA", "PITSA", 1).get(0);
+        assertEquals(0, m.start);
+        assertEquals(5, m.end);
+        
+        // "A" and "AKA" from the same start cost a gap, the longer 
+        // one is found by the chunk after seam at 2048
+        StringBuilder ks = new StringBuilder();
+        while (ks.length() < 4100)
+            ks.append('K');
+        ks.replace(2046, 2049, "AKA");
+        assertEquals("[(2046…2049, 1.00), (2048…2049, 1.00)]", 
+                     new FoneticSearch().findBest(ks, "AA", 10, 1.0).toString());
+        
+        // matches of a start do not depend on where seams fall
+        String ap = randomText(new Random(67), "AKP", 10_000);
+        for (String word : Arrays.asList("AA", "PAPA")) {
+            for (int shift : new int[] { 1, 777, 1500 }) {
+                List<String> whole = new ArrayList<>(), shifted = new ArrayList<>();
+                for (ScoredMatch b : new FoneticSearch().findBest(ap, word, 100_000, 1.0)) {
+                    if (b.start >= shift)
+                        whole.add(new ScoredMatch(b.start - shift, b.end - shift, b.score).toString());
+                }
+                for (ScoredMatch b : new FoneticSearch().findBest(ap.substring(shift), word, 100_000, 1.0))
+                    shifted.add(b.toString());
+                assertEquals(whole, shifted);
+            }
+        }
+    }
+    
+    
+    
+    @Test
+    public void testAnchoredSearch() {
+        FoneticText text = FoneticText.of(randomText(new Random(29), "AOUIEPHFSZTCKDJ ", 5_000));
+        FoneticWorkspace ws = new FoneticWorkspace();
+        for (double quantum : new double[] { 0, 0.5 }) {
+            FoneticSearch fs     = new FoneticSearch().setCostQuantum(quantum);
+            FoneticSearch scalar = new FoneticSearch().setCostQuantum(quantum).setBitParallelLength(0);
+            // patterns with chars absent in text are cut short by cost bound
+            for (String word : Arrays.asList("PITSA", "OGRANITCHENNOJ", "DJEK", "MARGARITA", "WXW")) {
+                FoneticPattern p = FoneticSearch.compile(word);
+                for (double max = 0.5; max <= 3.0; max += 1.0) {
+                    List<ScoredMatch> all = fs.findOccurrences(text, p, max, ws);
+                    assertEquals(all.toString(), scalar.findOccurrences(text, p, max, ws).toString());
+                    assertEquals(all.toString(), fs.findOccurrences(text, p, max, 0, text.length(), ws).toString());
+                    
+                    // every match of full search has a match from the same start 
+                    // in its band, ending at the same position or farther
+                    for (ScoredMatch m : all) {
+                        List<ScoredMatch> band = fs.findOccurrences(text, p, max, m.start, m.start + 1, ws);
+                        assertEquals(1, band.size());
+                        assertEquals(m.start, band.get(0).start);
+                        assertTrue(band.get(0).end >= m.end);
+                    }
+                    for (ScoredMatch m : fs.findOccurrences(text, p, max, 1000, 1100, ws))
+                        assertTrue(m.start >= 1000 && m.start < 1100);
+                }
+            }
+        }
+        assertTrue(new FoneticSearch().findOccurrences(text, FoneticSearch.compile("PITSA"), 1.0, 7, 7, ws)
+                                      .isEmpty());
+    }
+    
+    
+    
+    @Test
+    public void testBandSearch() {
+        FoneticSearch fs = new FoneticSearch();
+        FoneticWorkspace ws = new FoneticWorkspace();
+        
+        // the char before band does not add to a match starting in band
+        FoneticText text = FoneticText.of("OIEICYYANRPFZZ FFTGIPOEKIAIPAHOYGIIOEGKIKPACJWATFHS");
+        FoneticPattern euz = FoneticSearch.compile("EUZ");
+        assertEquals(2.5, fs.getScore("O", "EUZ"), 1e-9);
+        assertTrue(fs.findOccurrences(text, euz, 2.0, 35, 36, ws).isEmpty());
+        assertTrue(fs.findOccurrences(text, euz, 2.0, new int[] { 35 }, null, ws).isEmpty());
+        
+        // a band gives the same as its starts given one by one
+        Random rnd = new Random(79);
+        String alphabet = "AOUIEPHFSZTCKDJ ";
+        for (int r = 0; r < 300; r++) {
+            text = FoneticText.of(randomText(rnd, alphabet, 50 + rnd.nextInt(100)));
+            FoneticPattern p = FoneticSearch.compile(randomWord(rnd, alphabet.trim()));
+            double max = 0.5 * rnd.nextInt(6);
+            int from = rnd.nextInt(text.length()), to = from + rnd.nextInt(text.length() - from + 1);
+            int[] starts = new int[to - from];
+            for (int i = 0; i < starts.length; i++)
+                starts[i] = from + i;
+            assertEquals(fs.findOccurrences(text, p, max, starts, null, ws).toString(), 
+                         fs.findOccurrences(text, p, max, from, to, ws).toString());
+        }
+    }
+    
+    
+    
+    @Test
+    public void testScore() {
+        FoneticSearch fs = new FoneticSearch();
+        FoneticSearch fq = new FoneticSearch().setCostQuantum(0.5);
+        assertEquals(0.5, fs.getScore("PIZZA", "PITSA"), 1e-9);
+        assertEquals(0.0, fs.getScore("PITSA", "PITSA"), 1e-9);
+        assertEquals(Double.POSITIVE_INFINITY, fs.getScore("PIZZA", "PITSA", 0.25), 0);
+        assertEquals(Double.POSITIVE_INFINITY, fs.getScore("", "PITSA"), 0);
+        Random rnd = new Random(31);
+        String alphabet = "AOUIEPHFSZTCKDJ";
+        FoneticWorkspace ws = new FoneticWorkspace();
+        for (int r = 0; r < 2000; r++) {
+            String word = randomWord(rnd, alphabet), pattern = randomWord(rnd, alphabet);
+            double score = fs.getScore(word, pattern);
+            
+            // not worse than a match from the first to the last char found by search 
+            for (ScoredMatch m : fs.findOccurrences(word, pattern, Double.MAX_VALUE)) {
+                if (m.start == 0 && m.end == word.length())
+                    assertTrue(score <= m.score);
+            }
+            assertEquals(score, fq.getScore(word, pattern), 1e-9);
+            for (double max = 0; max <= 3.0; max += 0.5) {
+                assertEquals(score <= max ? score : Double.POSITIVE_INFINITY,
+                             fs.getScore(FoneticText.of(word), FoneticSearch.compile(pattern), max, ws), 1e-9);
+            }
+        }
+    }
+    
+    
+    @Test
+    public void testBatchScores() {
+        Random rnd = new Random(37);
+        String alphabet = "AOUIEPHFSZTCKDJ";
+        CharSequence[] words    = new CharSequence[300];
+        CharSequence[] patterns = new CharSequence[40];
+        for (int i = 0; i < words.length; i++)
+            words[i] = randomWord(rnd, alphabet);
+        for (int j = 0; j < patterns.length; j++)
+            patterns[j] = randomWord(rnd, alphabet);
+        FoneticSearch fs = new FoneticSearch();
+        int m = patterns.length;
+        double[] ds = new double[words.length * m];
+        float[]  fl = new float[words.length * m];
+        fs.getScores(words, patterns, 2.0, ds);
+        fs.getScores(words, patterns, 2.0, fl);
+        for (int i = 0; i < words.length; i++) {
+            for (int j = 0; j < m; j++) {
+                assertEquals(fs.getScore(words[i], patterns[j], 2.0), ds[i * m + j], 0);
+                assertEquals((float) ds[i * m + j], fl[i * m + j], 0);
+            }
+        }
+        double[] row = new double[words.length];
+        fs.getScores(patterns[3], words, 2.0, row);
+        for (int i = 0; i < words.length; i++)
+            assertEquals(ds[i * m + 3], row[i], 0);
+        
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            double[] ps = new double[ds.length];
+            float[]  pf = new float[fl.length];
+            fs.getScores(words, patterns, 2.0, ps, executor);
+            fs.getScores(words, patterns, 2.0, pf, executor);
+            assertArrayEquals(ds, ps, 0);
+            assertTrue(Arrays.equals(fl, pf));
+        } finally {
+            executor.shutdown();
+        }
+        try {
+            fs.getScores(words, patterns, 2.0, new double[10]);
+            fail();
+        } catch (IllegalArgumentException e) { }
+    }
+    
+    
+    @Test
+    public void testConfig() throws Exception {
+        FoneticSearch.Config config = FoneticSearch.Config.builder()
+                                          .setGapCost(0.7).setReplaceCost(1.3).setSubstitutionCost(0.4)
+                                          .setBitParallelLength(64)
+                                          .build();
+        FoneticSearch fs = new FoneticSearch(config);
+        FoneticSearch mutable = new FoneticSearch().setGapCost(0.7).setReplaceCost(1.3).setSubstitutionCost(0.4)
+                                                   .setBitParallelLength(64);
+        assertEquals(config.toString(), mutable.getConfig().toString());
+        assertEquals(FoneticSearch.Config.DEFAULT.toString(), new FoneticSearch().getConfig().toString());
+        assertEquals(0.5, config.toBuilder().setGapCost(0.5).build().getGapCost(), 0);
+        assertEquals(0.7, config.getGapCost(), 0);
+        try {
+            fs.setGapCost(1.0);
+            fail();
+        } catch (UnsupportedOperationException e) { }
+        try {
+            FoneticSearch.Config.builder().setDigraphCost(-1).build();
+            fail();
+        } catch (IllegalArgumentException e) { }
+        
+        // setters replace configuration, a snapshot taken before keeps old values
+        FoneticSearch.Config before = mutable.getConfig();
+        mutable.setGapCost(0.9);
+        assertEquals(0.7, before.getGapCost(), 0);
+        assertEquals(0.9, mutable.getConfig().getGapCost(), 0);
+        mutable.setGapCost(0.7);
+        
+        // one instance shared by threads gives the same as sequential search
+        String text = randomText(new Random(41), "AOUIEPHFSZTCKDJ ", 20_000);
+        List<String> words = Arrays.asList("PITSA", "OGRANITCHENNOJ", "DJEK", "SHIPKA", "FOKUS");
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int r = 0; r < 40; r++) {
+                String word = words.get(r % words.size());
+                results.add(executor.submit(() -> fs.findOccurrences(text, word, 2.0).toString()));
+            }
+            for (int r = 0; r < results.size(); r++) {
+                String word = words.get(r % words.size());
+                assertEquals(mutable.findOccurrences(text, word, 2.0).toString(), results.get(r).get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+    
+    
+    private static String randomText(Random rnd, String alphabet, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        while (sb.length() < length)
+            sb.append(alphabet.charAt(rnd.nextInt(alphabet.length())));
+        return sb.toString();
+    }
+    
+    
+    private static String randomWord(Random rnd, String alphabet) {
+        char[] cs = new char[1 + rnd.nextInt(8)];
+        for (int i = 0; i < cs.length; i++)
+            cs[i] = alphabet.charAt(rnd.nextInt(alphabet.length()));
+        return new String(cs);
+    }
+    
+    
+    
+    @Test
+    public void testWordAnchoredSearch() {
+        FoneticSearch fs = new FoneticSearch();
+        List<ScoredMatch> ms = fs.findWordOccurrences("PIZZA PITSAS XPITSA", "PITSA", 0.5, false);
+        assertEquals(2, ms.size());
+        assertEquals(0, ms.get(0).start);
+        assertEquals(6, ms.get(1).start);
+        ms = fs.findWordOccurrences("PIZZA PITSAS XPITSA", "PITSA", 0.5, true);
+        assertEquals(1, ms.size());
+        assertEquals(5, ms.get(0).end);
+        
+        String source = randomText(new Random(43), "AOUIEPHFSZTCKDJ  ", 10_000);
+        FoneticText text = FoneticText.of(source);
+        int[] starts = Words.splitIntoWords(source).stream().mapToInt(Word::start).toArray();
+        IntPredicate isStart = Words.wordStarts(source), isEnd = Words.wordEnds(source);
+        FoneticWorkspace ws = new FoneticWorkspace();
+        for (FoneticSearch f : Arrays.asList(fs, new FoneticSearch().setCostQuantum(0.5))) {
+            for (String word : Arrays.asList("PITSA", "DJEK", "SHIPKA", "O")) {
+                FoneticPattern p = FoneticSearch.compile(word);
+                for (double max = 0.5; max <= 2.5; max += 1.0) {
+                    // seeded at all positions, the same as plain search
+                    assertEquals(f.findOccurrences(text, p, max, ws).toString(), 
+                                 f.findOccurrences(text, p, max, j -> true, null, ws).toString());
+                    
+                    List<ScoredMatch> anchored = f.findOccurrences(text, p, max, starts, null, ws);
+                    assertEquals(anchored.toString(), f.findOccurrences(text, p, max, isStart, null, ws).toString());
+                    for (ScoredMatch m : anchored)
+                        assertTrue(isStart.test(m.start));
+                    for (ScoredMatch m : f.findOccurrences(text, p, max, starts, isEnd, ws))
+                        assertTrue(isStart.test(m.start) && isEnd.test(m.end));
+                }
+            }
+        }
+    }
+    
+    
+    
+    @Test
+    public void testFolding() {
+        assertEquals("PIZZERIA A PARNU: STRASE, EUVRE, LODZ, ЁЛКА", 
+                     Folding.fold("Pizzéria à Pärnu: straße, œuvre, Łódź, ёлка"));
+        assertEquals("NGUYEN D S, PHO", Folding.fold("Nguyễn Ḑ ẞ, phở"));
+        String text = "Une pizzéria à Pärnu: PIZZA, pizza, Piżża, pitsa";
+        FoneticSearch fs = new FoneticSearch(FoneticSearch.Config.builder().setFolding(true).build());
+        FoneticSearch plain = new FoneticSearch();
+        
+        // offsets refer to original text, the same as in its folded copy
+        List<ScoredMatch> ms = fs.findOccurrences(text, "pizza", 1.0);
+        assertEquals(plain.findOccurrences(Folding.fold(text), "PIZZA", 1.0).toString(), ms.toString());
+        assertEquals(5, ms.size());
+        assertEquals("Piżża", text.substring(ms.get(3).start, ms.get(3).end));
+        assertEquals(ms.toString(), fs.findOccurrences(FoneticText.of(text, true), "PIZZA", 1.0).toString());
+        assertEquals(ms.toString(), new ParallelFoneticSearch(fs).setChunkLength(10)
+                                            .findOccurrences(text, "pizza", 1.0).toString());
+        List<ScoredMatch> streamed = new ArrayList<>();
+        new StreamingFoneticSearch(fs, "pizza", 1.0, streamed::add).setBlockLength(7).append(text).finish();
+        assertEquals(ms.toString(), streamed.toString());
+        assertEquals(0.0, fs.getScore("Piżża", "pizza"), 0);
+        assertEquals(Double.POSITIVE_INFINITY, plain.getScore("Piżża", "PIZZA", 1.0), 0);
+        assertTrue(plain.findOccurrences(text, "pizza", 0).size() == 1);
+    }
+    
+    
+    @Test
+    public void testDenseRows() {
+        FoneticSearch fs = new FoneticSearch();
+        FoneticSearch sparse = new FoneticSearch().setDenseRows(false);
+        String alphabet = "AOUIEPHFSZTCKDJYШЖ\u00DF\u0178 ";
+        StringBuilder sb = new StringBuilder(randomText(new Random(47), alphabet, 20_000));
+        sb.append(" PIZZA MUSTAFA OBSHESTVOSORGONICHENOYOTVETSTVENNOSTYU");
+        FoneticText text = FoneticText.of(sb);
+        String[] words = { "PITSA", "MOUSTAPHA", "OGRANITCHENNOJ", "SHIPKA", "FIZZ", "DJEK", "ЖШ", "O" };
+        for (double quantum : new double[] { 0, 0.5 }) {
+            fs.setCostQuantum(quantum);
+            sparse.setCostQuantum(quantum);
+            for (String w : words) {
+                // the higher cost, the more rows are dense
+                for (double max = 0; max <= 4.0; max += 1.0)
+                    assertEquals(sparse.findOccurrences(text, w, max).toString(), 
+                                 fs.findOccurrences(text, w, max).toString());
+                assertEquals(sparse.findBest(text, w, 5).toString(), fs.findBest(text, w, 5).toString());
+                assertEquals(sparse.getScore(w + "AS", w), fs.getScore(w + "AS", w), 0);
+            }
+        }
+        assertFalse(fs.getConfig().toBuilder().setDenseRows(false).build().isDenseRows());
+    }
+    
+    
+    @Test
+    public void testPhoneticKeyIndex() {
+        FoneticSearch fs = new FoneticSearch();
+        assertEquals(PhoneticKeyIndex.key("PIZZA"), PhoneticKeyIndex.key("PITSA"));
+        assertEquals(PhoneticKeyIndex.key("MUSTAFA"), PhoneticKeyIndex.key("MOUSTAPHA"));
+        assertNotEquals(PhoneticKeyIndex.key("PIZZA"), PhoneticKeyIndex.key("PASTA"));
+        Map<String, Integer> dict = new TreeMap<>();
+        dict.put("PIZZA", 1);
+        dict.put("MUSTAFA", 2);
+        dict.put("KHACHATURYAN", 3);
+        dict.put("PITSA", 4);
+        PhoneticKeyIndex<Integer> index = new PhoneticKeyIndex<>(fs, dict);
+        assertEquals(4, index.size());
+        assertEquals(2, index.candidates("PIZZA").size());
+        assertTrue(index.candidates("BORSCHT").isEmpty());
+        
+        // found entries are scored the same as by search
+        String text = "MOUSTAPHA ATE PIZZA, NOT BORSCHT";
+        List<String> found = new ArrayList<>();
+        List<Word> rest = new ArrayList<>();
+        int n = index.search(text, 1.0, (m, v) -> {
+            String w = text.substring(m.start, m.end);
+            found.add(w + v);
+            for (Map.Entry<String, Integer> e : dict.entrySet()) {
+                if (e.getValue().equals(v))
+                    assertEquals(fs.getScore(w, e.getKey(), 1.0), m.score, 0);
+            }
+        }, rest::add);
+        assertEquals(3, n);
+        assertEquals(Arrays.asList("MOUSTAPHA2", "PIZZA4", "PIZZA1"), found);
+        assertEquals("[ATE, NOT, BORSCHT]", rest.toString());
+        
+        // the same key, but too costly
+        assertEquals(1, index.lookup("PITSA", 0, (m, v) -> assertEquals(4, (int) v)));
+        assertEquals(0, index.lookup("BECA", 1.0, (m, v) -> fail()));
+    }
+    
+    
+    @Test
+    public void testDeletionIndex() {
+        FoneticSearch fs = new FoneticSearch();
+        Random rnd = new Random(53);
+        String alphabet = "ABCDEFGHIKLMNOPRSTUVZ";
+        Map<String, Integer> dict = new TreeMap<>();
+        while (dict.size() < 2000)
+            dict.put(randomWord(rnd, alphabet) + randomWord(rnd, alphabet), dict.size());
+        DeletionIndex<Integer> index = new DeletionIndex<>(fs, 1, dict);
+        assertEquals(dict.size(), index.size());
+        List<String> keys = new ArrayList<>(dict.keySet());
+        int recalled = 0, tokens = 500, maxCandidates = 0;
+        for (int t = 0; t < tokens; t++) {
+            // an entry with one gap or replacement
+            String src = keys.get(rnd.nextInt(keys.size()));
+            StringBuilder w = new StringBuilder(src);
+            int p = rnd.nextInt(w.length());
+            switch (t % 3) {
+                case 0:  w.deleteCharAt(p); break;
+                case 1:  w.insert(p, alphabet.charAt(rnd.nextInt(alphabet.length()))); break;
+                default: w.setCharAt(p, alphabet.charAt(rnd.nextInt(alphabet.length())));
+            }
+            Map<Integer, Double> expected = new HashMap<>();
+            for (Map.Entry<String, Integer> e : dict.entrySet()) {
+                double cost = fs.getScore(w, e.getKey(), 2.0);
+                if (cost <= 2.0)
+                    expected.put(e.getValue(), cost);
+            }
+            Map<Integer, Double> found = new HashMap<>();
+            index.lookup(w, 2.0, (m, v) -> found.put(v, m.score));
+            for (Map.Entry<Integer, Double> e : found.entrySet())
+                assertEquals(expected.get(e.getKey()), e.getValue());
+            if (found.containsKey(dict.get(src)))
+                recalled++;
+            maxCandidates = Math.max(maxCandidates, index.candidates(w).size());
+        }
+        // edits may break digraphs, so a few are missed
+        assertTrue(recalled > tokens * 0.85);
+        assertTrue(maxCandidates < dict.size() / 40);
+        
+        // no deletions is a key lookup
+        DeletionIndex<Integer> keyed = new DeletionIndex<>(fs, 0, dict);
+        String w = keys.get(0);
+        assertEquals(new PhoneticKeyIndex<>(fs, dict).candidates(w), keyed.candidates(w));
+        
+        // entries added one by one give the same candidates, trimmed or not
+        DeletionIndex<Integer> added = new DeletionIndex<>(fs, 1);
+        dict.forEach(added::put);
+        assertEquals(index.candidates(w), added.candidates(w));
+        assertEquals(index.candidates(w), added.trim().candidates(w));
+    }
+    
+    
+    @Test
+    public void testSuffixArray() {
+        FoneticSearch fs = new FoneticSearch();
+        FoneticSearch sx = new FoneticSearch().setSuffixArray(true);
+        StringBuilder sb = new StringBuilder(randomText(new Random(59), "AOUIEPHFSZTCKDJY ", 20_000));
+        sb.append("OBSHESTVOSORGONICHENOYOTVETSTVENNOSTYU MUSTAFA PIZZA");
+        FoneticText text = FoneticText.of(sb);
+        String[] words = { "PITSA", "MOUSTAPHA", "OGRANITCHENNOJ", "SHIPKA", "FIZZ", "DJEK", "OK" };
+        for (double quantum : new double[] { 0, 0.5 }) {
+            fs.setCostQuantum(quantum);
+            sx.setCostQuantum(quantum);
+            for (String w : words) {
+                for (double max = 0; max <= 3.0; max += 0.5)
+                    assertEquals(fs.findOccurrences(text, w, max).toString(), 
+                                 sx.findOccurrences(text, w, max).toString());
+            }
+        }
+        assertFalse(sx.findOccurrences(text, "MOUSTAPHA", 1.5).isEmpty());
+        
+        // most of text is not visited for a long pattern
+        sx.getFilterStats().reset();
+        assertFalse(sx.findOccurrences(text, "MOUSTAPHA", 1.5).isEmpty());
+        assertTrue(sx.getFilterStats().skippedFraction() > 0.9);
+        
+        // costs, which are not multiples of the least one
+        fs.setCostQuantum(0).setGapCost(0.7).setReplaceCost(1.3).setSubstitutionCost(0.4);
+        sx.setCostQuantum(0).setGapCost(0.7).setReplaceCost(1.3).setSubstitutionCost(0.4);
+        for (String w : words)
+            assertEquals(fs.findOccurrences(text, w, 2.2).toString(), 
+                         sx.findOccurrences(text, w, 2.2).toString());
+        
+        // replacement cheaper than gap, so a match at text start 
+        // may take column 0 of the first row
+        fs.setSubstitutionCost(0.7).setDigraphCost(1.0).setGapCost(3.0).setReplaceCost(0.5);
+        sx.setSubstitutionCost(0.7).setDigraphCost(1.0).setGapCost(3.0).setReplaceCost(0.5);
+        List<ScoredMatch> head = fs.findOccurrences("HEPIZZA", "CH", 0.5);
+        assertEquals(1, head.size());
+        assertEquals(0, head.get(0).start);
+        assertEquals(1, head.get(0).end);
+        assertEquals(head.toString(), sx.findOccurrences("HEPIZZA", "CH", 0.5).toString());
+        Random rnd = new Random(83);
+        for (int r = 0; r < 200; r++) {
+            String t = randomText(rnd, "AOUIEPHFSZTCKDJ ", 5 + rnd.nextInt(30));
+            String w = randomWord(rnd, "AOUIEPHFSZTCKDJ");
+            for (double max = 0; max <= 2.0; max += 0.5)
+                assertEquals(fs.findOccurrences(t, w, max).toString(), sx.findOccurrences(t, w, max).toString());
+        }
+        
+        // the array follows refilled text
+        text.set("XPITSAX PIZZA");
+        assertEquals(fs.findOccurrences(text, "PIZZA", 1.0).toString(), 
+                     sx.findOccurrences(text, "PIZZA", 1.0).toString());
+    }
+    
+    
+    @Test
+    public void testPigeonholeFilter() {
+        FoneticSearch fs = new FoneticSearch();
+        FoneticSearch ph = new FoneticSearch().setPigeonholeFilter(true);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZ    ";
+        StringBuilder sb = new StringBuilder(randomText(new Random(61), alphabet, 50_000));
+        String address = "ULITSA BOLSHAYA SADOVAYA DOM DESYAT KVARTIRA PYATDESYAT";
+        sb.insert(10_000, " ULITCA BOLSHAJA SADOVAJA DOM DESJAT KVARTIRA PJATDESJAT ");
+        sb.insert(30_000, " ULICA BOLSAYA SADOVAYA DOM DESYAT KVARTIRA PYATDESYAT ");
+        FoneticText text = FoneticText.of(sb);
+        String[] words = { address, "OBSHESTVO S OGRANICHENNOY OTVETSTVENNOSTYU", "KHACHATURYAN" };
+        for (double quantum : new double[] { 0, 0.5 }) {
+            fs.setCostQuantum(quantum);
+            ph.setCostQuantum(quantum);
+            for (String w : words) {
+                for (double max = 0; max <= 3.0; max += 0.5)
+                    assertEquals(fs.findOccurrences(text, w, max).toString(), 
+                                 ph.findOccurrences(text, w, max).toString());
+            }
+        }
+        assertEquals(2, ph.findOccurrences(text, address, 3.0).size());
+        
+        // few pieces of an address occur in random text
+        ph.getFilterStats().reset();
+        assertEquals(1, ph.findOccurrences(text, address, 2.0).size());
+        assertTrue(ph.getFilterStats().skippedFraction() > 0.9);
+    }
+    
+    
+    @Test
+    public void testEnginesSharingWorkspace() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 200; i++)
+            sb.append("PIZZA ");
+        FoneticText text = FoneticText.of(sb);
+        FoneticSearch fs = new FoneticSearch();
+        List<FoneticSearch> engines = Arrays.asList(new FoneticSearch().setSuffixArray(true),
+                                                    new FoneticSearch().setPigeonholeFilter(true),
+                                                    new FoneticSearch().setQGramFilter(true),
+                                                    new FoneticSearch().setBitParallelLength(64), fs);
+        
+        // candidate ranges left by one engine in workspace
+        // must not break the next one
+        FoneticWorkspace ws = new FoneticWorkspace();
+        String[] words = { "PIZZA", "PIZZA PIZZA PIZZA", "PITSA PITSA", "PIZZA PIZZA PIZZA PIZZA PIZZA" };
+        for (int r = 0; r < 2; r++) {
+            for (FoneticSearch e : engines) {
+                for (String w : words) {
+                    for (double max : new double[] { 0, 1.0, 2.0 }) {
+                        FoneticPattern p = FoneticSearch.compile(w);
+                        assertEquals(fs.findOccurrences(text, p, max).toString(),
+                                     e.findOccurrences(text, p, max, ws).toString());
+                    }
+                }
+            }
+        }
+    }
+    
+    
+    
+    @Test
+    public void testStreamingSearch() throws IOException {
+        Random rnd = new Random(71);
+        String alphabet = "AOUIEPHFSZTCKDJ ";
+        String text = randomText(rnd, alphabet, 30_000);
+        for (FoneticSearch fs : Arrays.asList(new FoneticSearch(), 
+                                              new FoneticSearch().setBitParallelLength(64))) {
+            // a 1-char pattern may match by gap at end 0
+            for (String word : Arrays.asList("PITSA", "OGRANITCHENNOJ", "DJEK", "P")) {
+                String expected = fs.findOccurrences(text, word, 2.0).toString();
+                for (int block : new int[] { 1, 100, 4096, 50_000 }) {
+                    // pieces of random length, matches come in order
+                    List<ScoredMatch> res = new ArrayList<>();
+                    StreamingFoneticSearch ss = new StreamingFoneticSearch(fs, word, 2.0, res::add)
+                                                    .setBlockLength(block);
+                    for (int k = 0; k < text.length(); ) {
+                        int e = Math.min(text.length(), k + rnd.nextInt(300));
+                        ss.append(CharBuffer.wrap(text, k, e));
+                        k = e;
+                    }
+                    assertEquals(text.length(), ss.position());
+                    int found = ss.finish();
+                    assertEquals(res.size(), found);
+                    assertEquals(expected, res.toString());
+                }
+                List<ScoredMatch> res = new ArrayList<>();
+                new StreamingFoneticSearch(fs, word, 2.0, res::add)
+                    .setBlockLength(333)
+                    .search(new StringReader(text));
+                assertEquals(expected, res.toString());
+            }
+        }
+    }
+    
+    
+    @Test
+    public void testMappedFile() throws IOException {
+        String text = randomText(new Random(73), "AOUIEPHFSZTCKDJÉÖ ", 40_000);
+        Path file = Files.createTempFile("fonetic", ".txt");
+        
+        // mapped file cannot be deleted on some platforms until unmapped by gc
+        file.toFile().deleteOnExit();
+        Files.write(file, text.getBytes(StandardCharsets.ISO_8859_1));
+        Latin1Text mapped = Latin1Text.map(file);
+        assertEquals(text, mapped.toString());
+        assertEquals(text.substring(100, 200), mapped.subSequence(100, 200).toString());
+        
+        // the same offsets as of decoded text
+        FoneticSearch fs = new FoneticSearch();
+        for (String word : Arrays.asList("PITSA", "ÉDJÖK", "P"))
+            assertEquals(fs.findOccurrences(text, word, 2.0).toString(), 
+                         MappedFileSearch.findOccurrences(fs, file, word, 2.0).toString());
+        String sub = text.substring(0, 2000);
+        Path subFile = Files.createTempFile("fonetic", ".txt");
+        subFile.toFile().deleteOnExit();
+        Files.write(subFile, sub.getBytes(StandardCharsets.ISO_8859_1));
+        assertEquals(LcsSearch.findLcsOccurrences(sub, "PHIZZA", 10, 4, 1).toString(),
+                     MappedFileSearch.findLcsOccurrences(subFile, "PHIZZA", 10, 4, 1).toString());
+    }
+    
 }
@@ -6,6 +6,7 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
@@ -19,6 +20,7 @@ import org.junit.Test;
 
 import ru.iitdgroup.lingutil.collect.SimpleTrieMap;
 import ru.iitdgroup.lingutil.collect.TrieMap;
+import ru.iitdgroup.lingutil.collect.TrieMap.TrieCursor;
 
 public class TestSimpleTrieMap {
 
@@ -172,6 +174,61 @@ public class TestSimpleTrieMap {
     }
     
     
+    @Test
+    public void testCursor() {
+        TrieMap<String> t = new SimpleTrieMap<>();
+        for (String s : Arrays.asList("APP", "APPLE", "APPDATA", "BE", "BEING", "BEHIND"))
+            t.put(s, s);
+        
+        TrieCursor<String> c = t.getCursor();
+        assertEquals(-1, c.currentPosition());
+        assertFalse(c.hasValue());
+        assertFalse(c.hasMore());
+        assertTrue(c.hasNext('A'));
+        assertTrue(c.hasNext('B'));
+        assertFalse(c.hasNext('P'));
+        
+        assertEquals('A', c.next());
+        assertEquals('P', c.next('P'));
+        assertEquals('P', c.next());
+        assertTrue(c.hasValue());
+        assertEquals("APP", c.getValue());
+        assertEquals("APP", c.currentPrefix());
+        assertEquals(2, c.currentPosition());
+        
+        assertEquals('D', c.next());             // alternatives in alphabetical order
+        assertFalse(c.hasValue());
+        assertTrue(c.hasMore());
+        assertTrue(c.hasMore('L'));
+        assertFalse(c.hasMore('D'));
+        assertEquals('L', c.more());
+        assertFalse(c.hasMore());
+        assertEquals('E', c.next());
+        assertEquals("APPLE", c.getValue());
+        assertFalse(c.hasNext());
+        
+        assertEquals('E', c.back());
+        assertEquals('L', c.back());
+        assertEquals('P', c.back());
+        assertEquals('P', c.back());
+        assertEquals(0, c.currentPosition());
+        assertEquals('B', c.more());
+        assertEquals('E', c.next());
+        assertEquals("BE", c.getValue());
+        assertFalse(c.hasMore());                // 'E' is inside edge "BE"
+        assertTrue(c.hasNext('H'));
+        assertTrue(c.hasNext('I'));
+        assertEquals('I', c.next('I'));
+        assertEquals('N', c.next());
+        assertEquals('G', c.next());
+        assertEquals("BEING", c.getValue());
+        
+        // entries are traversed by cursor in alphabetical order 
+        assertEquals(Arrays.asList("APP", "APPDATA", "APPLE", "BE", "BEHIND", "BEING"), 
+                     new ArrayList<>(t.keySet()));
+    }
+    
+    
     static void verifyContents(TrieMap<?> m, 
                                Collection<?> expected, 
                                Collection<?> notExpected) {